@@ -1,10 +1,17 @@
 /**
  * Implements a bone of a certain size.
- * The rotation and gtranslation of the bone are expressed wrt the origin.
+ * The rotation and gtranslation of the bone are expressed wrt the origin,
+ * or wrt the parent bone if it has one.
  * By definition the pose transform of the bone is derived from 
  * its translation and rotation at time 0.
  */
 public class Bone {
+    /**
+     * Index of the parent bone in the bones of the skinned mesh,
+     * -1 if the bone has no parent.
+     */
+    public int parent = -1;
+    
     /**
      * Current Translation
      */
@@ -65,20 +72,114 @@ public class Bone {
      * Move the bones and animate the transforms at the same time
      */
     public void animate(double time) {
-        throw new NotImplementedException();
+        animate(time, null);
+    }
+    
+    /**
+     * Move the bones and animate the transforms at the same time.
+     * The transform is relative to parentBone, whose transform must have
+     * already been animated. parentBone is null for bones without parent.
+     */
+    public void animate(double time, Bone parentBone) {
+        if(translationVariation != null) {
+            translationVariation.evaluateInto(time, translation);
+        }
+        if(rotationVariation != null) {
+            rotationVariation.evaluateInto(time, rotation);
+        }
+        if(m == null) {
+            m = new Mat4();
+            nm = new Mat4();
+        }
+        // bones are not scaled: m = T * Rx * Ry * Rz
+        m.setTRS(translation.x, translation.y, translation.z,
+                 rotation.x, rotation.y, rotation.z, 1, 1, 1);
+        if(parentBone != null) {
+            Mat4.multiplyInto(parentBone.m, m, m);
+        }
+        m.normalTransformInto(nm);
     }
     
     /**
      * Compute pose transforms
      */
     public void computePoseTransforms() {
-        throw new NotImplementedException();
+        computePoseTransforms(null);
+    }
+    
+    /**
+     * Compute pose transforms of a bone with the given parent,
+     * whose pose transforms must have already been computed.
+     */
+    public void computePoseTransforms(Bone parentBone) {
+        animate(0, parentBone);
+        if(m0i == null) {
+            m0i = new Mat4();
+            nm0i = new Mat4();
+        }
+        m.rigidInverseInto(m0i);
+        m0i.normalTransformInto(nm0i);
     }
     
     /**
-     * Restart animation from 0
+     * Store the unit dual quaternion of the skinning transform m * m0i in
+     * dest starting at offset: the real part w,x,y,z followed by the dual
+     * part w,x,y,z. Bones are rigid, so the dual quaternion represents the
+     * transform exactly.
      */
-    public void restartAnimation() {
-        animate(0);
+    public void getSkinningDualQuaternion(double[] dest, int offset) {
+        double[] a = m.d, b = m0i.d;
+        // rotation and translation of m * m0i
+        double r00 = a[0]*b[0] + a[1]*b[4] + a[ 2]*b[ 8];
+        double r01 = a[0]*b[1] + a[1]*b[5] + a[ 2]*b[ 9];
+        double r02 = a[0]*b[2] + a[1]*b[6] + a[ 2]*b[10];
+        double r10 = a[4]*b[0] + a[5]*b[4] + a[ 6]*b[ 8];
+        double r11 = a[4]*b[1] + a[5]*b[5] + a[ 6]*b[ 9];
+        double r12 = a[4]*b[2] + a[5]*b[6] + a[ 6]*b[10];
+        double r20 = a[8]*b[0] + a[9]*b[4] + a[10]*b[ 8];
+        double r21 = a[8]*b[1] + a[9]*b[5] + a[10]*b[ 9];
+        double r22 = a[8]*b[2] + a[9]*b[6] + a[10]*b[10];
+        double tx = a[0]*b[3] + a[1]*b[7] + a[ 2]*b[11] + a[ 3];
+        double ty = a[4]*b[3] + a[5]*b[7] + a[ 6]*b[11] + a[ 7];
+        double tz = a[8]*b[3] + a[9]*b[7] + a[10]*b[11] + a[11];
+        
+        // rotation quaternion, from the largest diagonal term for accuracy
+        double w, x, y, z;
+        double trace = r00 + r11 + r22;
+        if(trace > 0) {
+            double s = 0.5 / Math.sqrt(trace + 1);
+            w = 0.25 / s;
+            x = (r21 - r12) * s;
+            y = (r02 - r20) * s;
+            z = (r10 - r01) * s;
+        } else if(r00 > r11 && r00 > r22) {
+            double s = 2 * Math.sqrt(1 + r00 - r11 - r22);
+            w = (r21 - r12) / s;
+            x = 0.25 * s;
+            y = (r01 + r10) / s;
+            z = (r02 + r20) / s;
+        } else if(r11 > r22) {
+            double s = 2 * Math.sqrt(1 + r11 - r00 - r22);
+            w = (r02 - r20) / s;
+            x = (r01 + r10) / s;
+            y = 0.25 * s;
+            z = (r12 + r21) / s;
+        } else {
+            double s = 2 * Math.sqrt(1 + r22 - r00 - r11);
+            w = (r10 - r01) / s;
+            x = (r02 + r20) / s;
+            y = (r12 + r21) / s;
+            z = 0.25 * s;
+        }
+        
+        dest[offset + 0] = w;
+        dest[offset + 1] = x;
+        dest[offset + 2] = y;
+        dest[offset + 3] = z;
+        // dual part: 0.5 * (0,t) * q
+        dest[offset + 4] = -0.5 * (tx*x + ty*y + tz*z);
+        dest[offset + 5] = 0.5 * (tx*w + ty*z - tz*y);
+        dest[offset + 6] = 0.5 * (ty*w + tz*x - tx*z);
+        dest[offset + 7] = 0.5 * (tz*w + tx*y - ty*x);
     }
 }
@@ -95,6 +95,25 @@ public class Color {
 						 b + c.b);
 	}
 
+	/**
+	 * Scalar multiply and add: this += c * s.
+	 * Assigns the value to this color.
+	 */
+	public void setToScaleAdd(double s, Color c) {
+		r += c.r * s;
+		g += c.g * s;
+		b += c.b * s;
+	}
+
+	/**
+	 * Scalar multiply and add: returns this + c * s.
+	 */
+	public Color scaleAdd(double s, Color c) {
+		return new Color(r + c.r * s,
+						 g + c.g * s,
+						 b + c.b * s);
+	}
+
 	/**
 	 * Assignment.
 	 */
@@ -0,0 +1,317 @@
+/**
+ * Flattened version of a hierarchy, used to animate and draw it with
+ * linear loops instead of recursive calls.
+ *
+ * Transforms are stored depth first, so that every transform comes after
+ * its parent. The leaves of the hierarchy are stored by kind, each with the
+ * index of the transform that contains it. The compiled scene keeps
+ * references to the nodes of the hierarchy, so it follows the changes of
+ * their values, but it has to be rebuilt after structural edits.
+ *
+ * @author fabio
+ */
+public class CompiledScene {
+    /**
+     * Transforms in depth first order.
+     */
+    public Transform[] transforms;
+
+    /**
+     * Index of the parent of each transform, -1 for the root.
+     */
+    public int[] transformParent;
+
+    /**
+     * One past the index of the last transform in the subtree of each transform.
+     */
+    public int[] transformSubtreeEnd;
+
+    /**
+     * Translation, rotation and scale each local matrix was computed from,
+     * 9 values per transform.
+     */
+    protected double[] localTRS;
+
+    /**
+     * Whether the local matrix of each transform has been computed.
+     */
+    protected boolean[] localValid;
+
+    /**
+     * Whether the world matrix of each transform changed in the last update.
+     */
+    protected boolean[] worldChanged;
+
+    /**
+     * Indices of the transforms with animation curves.
+     */
+    public int[] animatedTransforms;
+
+    /**
+     * Leaves with animation, in depth first order.
+     */
+    public HierarchyNode[] animatedLeaves;
+
+    /**
+     * Surfaces, except skinned meshes, and their transforms.
+     */
+    public Surface[] surfaces;
+    public int[] surfaceParent;
+
+    /**
+     * Skinned meshes and their transforms.
+     */
+    public SkinnedMesh[] skinnedMeshes;
+    public int[] skinnedMeshParent;
+
+    /**
+     * Particle systems and their transforms.
+     */
+    public ParticleSystem[] particleSystems;
+    public int[] particleSystemParent;
+
+    /**
+     * Minimum estimated cost of the leaves animated by one parallel task.
+     * @see HierarchyNode#getAnimationCost()
+     */
+    public static final int PARALLEL_MIN_COST = 16384;
+
+    /**
+     * Compile the hierarchy rooted at root.
+     * Uses the animated flags computed by HierarchyNode.updateAnimated.
+     */
+    public CompiledScene(Transform root) {
+        // count nodes
+        int[] counts = new int[5];
+        count(root, counts);
+        int nT = counts[0];
+
+        transforms = new Transform[nT];
+        transformParent = new int[nT];
+        transformSubtreeEnd = new int[nT];
+        localTRS = new double[nT*9];
+        localValid = new boolean[nT];
+        worldChanged = new boolean[nT];
+        surfaces = new Surface[counts[1]];
+        surfaceParent = new int[counts[1]];
+        skinnedMeshes = new SkinnedMesh[counts[2]];
+        skinnedMeshParent = new int[counts[2]];
+        particleSystems = new ParticleSystem[counts[3]];
+        particleSystemParent = new int[counts[3]];
+        animatedLeaves = new HierarchyNode[counts[4]];
+
+        // fill in depth first order
+        int[] cursors = new int[5];
+        add(root, -1, cursors);
+
+        int nAnimated = 0;
+        for(int k = 0; k < nT; k ++) {
+            if(hasVariation(transforms[k])) {
+                nAnimated ++;
+            }
+        }
+        animatedTransforms = new int[nAnimated];
+        nAnimated = 0;
+        for(int k = 0; k < nT; k ++) {
+            if(hasVariation(transforms[k])) {
+                animatedTransforms[nAnimated++] = k;
+            }
+        }
+    }
+
+    /**
+     * Count transforms, surfaces, skinned meshes, particle systems
+     * and animated leaves.
+     */
+    private static void count(HierarchyNode n, int[] counts) {
+        if(n instanceof Transform) {
+            counts[0] ++;
+            Transform t = (Transform)n;
+            for(int i = 0; i < t.children.length; i ++) {
+                count(t.children[i], counts);
+            }
+            return;
+        } else if(n instanceof SkinnedMesh) {
+            counts[2] ++;
+        } else if(n instanceof Surface) {
+            counts[1] ++;
+        } else if(n instanceof ParticleSystem) {
+            counts[3] ++;
+        } else {
+            System.out.println("Should never have gotten here!");
+            return;
+        }
+        if(n.isAnimated()) {
+            counts[4] ++;
+        }
+    }
+
+    /**
+     * Add n and its subtree, under the transform of index parent.
+     */
+    private void add(HierarchyNode n, int parent, int[] cursors) {
+        if(n instanceof Transform) {
+            Transform t = (Transform)n;
+            int k = cursors[0]++;
+            transforms[k] = t;
+            transformParent[k] = parent;
+            for(int i = 0; i < t.children.length; i ++) {
+                add(t.children[i], k, cursors);
+            }
+            transformSubtreeEnd[k] = cursors[0];
+            return;
+        } else if(n instanceof SkinnedMesh) {
+            int k = cursors[2]++;
+            skinnedMeshes[k] = (SkinnedMesh)n;
+            skinnedMeshParent[k] = parent;
+        } else if(n instanceof Surface) {
+            int k = cursors[1]++;
+            surfaces[k] = (Surface)n;
+            surfaceParent[k] = parent;
+        } else if(n instanceof ParticleSystem) {
+            int k = cursors[3]++;
+            particleSystems[k] = (ParticleSystem)n;
+            particleSystemParent[k] = parent;
+        } else {
+            return;
+        }
+        if(n.isAnimated()) {
+            animatedLeaves[cursors[4]++] = n;
+        }
+    }
+
+    /**
+     * Whether t has any animation curve.
+     */
+    private static boolean hasVariation(Transform t) {
+        return t.translationVariation != null ||
+               t.rotationVariation != null ||
+               t.scaleVariation != null;
+    }
+
+    /**
+     * Evaluates the state of the hierarchy at the given time,
+     * like Transform.animate on the root, then updates the world matrices.
+     */
+    public void animate(double time) {
+        animate(time, false);
+    }
+
+    /**
+     * Evaluates the state of the hierarchy at the given time. If parallel
+     * is set, the animated leaves are split in groups of at least
+     * PARALLEL_MIN_COST estimated work that are animated concurrently.
+     * Leaves do not share state, so the result is the same as animating
+     * them sequentially.
+     */
+    public void animate(double time, boolean parallel) {
+        for(int i = 0; i < animatedTransforms.length; i ++) {
+            Transform t = transforms[animatedTransforms[i]];
+            if(t.translationVariation != null) {
+                t.translationVariation.evaluateInto(time, t.translation);
+            }
+            if(t.rotationVariation != null) {
+                t.rotationVariation.evaluateInto(time, t.rotation);
+            }
+            if(t.scaleVariation != null) {
+                t.scaleVariation.evaluateInto(time, t.scale);
+            }
+        }
+        int grain = parallel ? getParallelGrain() : animatedLeaves.length;
+        Parallel.forRange(animatedLeaves.length, grain, (begin, end) -> {
+            for(int i = begin; i < end; i ++) {
+                animatedLeaves[i].animate(time);
+            }
+        });
+        updateWorldMatrices();
+    }
+
+    /**
+     * Number of leaves per parallel task, so that each task has about
+     * PARALLEL_MIN_COST work. Tiny scenes get a single task.
+     */
+    protected int getParallelGrain() {
+        int n = animatedLeaves.length;
+        if(n < 2 || !Parallel.isEnabled()) {
+            return n;
+        }
+        long cost = 0;
+        for(int i = 0; i < n; i ++) {
+            cost += animatedLeaves[i].getAnimationCost();
+        }
+        return (int)Math.max(1, Math.min(n, n * (long)PARALLEL_MIN_COST / Math.max(1, cost)));
+    }
+
+    /**
+     * Reset the animation at time 0, like Transform.restartAnimation
+     * on the root, then updates the world matrices.
+     */
+    public void restartAnimation() {
+        for(int i = 0; i < animatedTransforms.length; i ++) {
+            Transform t = transforms[animatedTransforms[i]];
+            if(t.translationVariation != null) {
+                t.translationVariation.evaluateInto(0, t.translation);
+            }
+            if(t.rotationVariation != null) {
+                t.rotationVariation.evaluateInto(0, t.rotation);
+            }
+            if(t.scaleVariation != null) {
+                t.scaleVariation.evaluateInto(0, t.scale);
+            }
+        }
+        for(int i = 0; i < surfaces.length; i ++) {
+            surfaces[i].restartAnimation();
+        }
+        for(int i = 0; i < skinnedMeshes.length; i ++) {
+            skinnedMeshes[i].restartAnimation();
+        }
+        for(int i = 0; i < particleSystems.length; i ++) {
+            particleSystems[i].restartAnimation();
+        }
+        updateWorldMatrices();
+    }
+
+    /**
+     * Update the local and world matrices of the transforms in one pass.
+     * A local matrix is recomputed only if its translation, rotation or
+     * scale changed, a world matrix only if the local matrix or the parent
+     * world matrix changed. Static subtrees under an unchanged parent are
+     * skipped, so after editing a static transform other than the root
+     * the scene must be compiled again.
+     */
+    public void updateWorldMatrices() {
+        double[] trs = localTRS;
+        for(int k = 0; k < transforms.length; k ++) {
+            Transform t = transforms[k];
+            int p = transformParent[k];
+            if(p >= 0 && !worldChanged[p] && !t.isAnimated() && localValid[k]) {
+                k = transformSubtreeEnd[k] - 1;
+                continue;
+            }
+            Vec3 tr = t.translation, r = t.rotation, s = t.scale;
+            int o = k*9;
+            boolean changed = !localValid[k] ||
+                    trs[o+0] != tr.x || trs[o+1] != tr.y || trs[o+2] != tr.z ||
+                    trs[o+3] != r.x  || trs[o+4] != r.y  || trs[o+5] != r.z ||
+                    trs[o+6] != s.x  || trs[o+7] != s.y  || trs[o+8] != s.z;
+            if(changed) {
+                trs[o+0] = tr.x; trs[o+1] = tr.y; trs[o+2] = tr.z;
+                trs[o+3] = r.x;  trs[o+4] = r.y;  trs[o+5] = r.z;
+                trs[o+6] = s.x;  trs[o+7] = s.y;  trs[o+8] = s.z;
+                t.localMatrix.setTRS(tr, r, s);
+                localValid[k] = true;
+            }
+            if(p < 0) {
+                if(changed) {
+                    t.worldMatrix.set(t.localMatrix);
+                }
+            } else {
+                changed |= worldChanged[p];
+                if(changed) {
+                    Mat4.multiplyInto(transforms[p].worldMatrix, t.localMatrix, t.worldMatrix);
+                }
+            }
+            worldChanged[k] = changed;
+        }
+    }
+}
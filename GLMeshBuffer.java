@@ -0,0 +1,272 @@
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import javax.media.opengl.GL;
+
+import com.sun.opengl.util.BufferUtil;
+
+/**
+ * A Mesh uploaded to GL vertex buffer objects, so that it can be drawn
+ * with a single glDrawElements instead of one call per vertex.
+ *
+ * Vertices are stored interleaved as x,y,z,nx,ny,nz floats. With smooth
+ * normals the vertices of the mesh are used as they are. With flat normals
+ * every face gets its own copy of its vertices with the face normal, as
+ * the immediate mode renderer does, since a vertex can only have one
+ * normal in a buffer.
+ *
+ * Meshes animated in place, such as skinned meshes, only update the vertex
+ * buffer, when the vertex version of the mesh changes. Their buffer is
+ * created as dynamic.
+ *
+ * Buffers must be created, drawn and disposed with the GL context current.
+ */
+public class GLMeshBuffer {
+    /**
+     * Floats per vertex
+     */
+    static final int VERTEX_SIZE = 6;
+
+    /**
+     * Names of the vertex and index buffer objects
+     */
+    protected int vertexBuffer, indexBuffer;
+
+    /**
+     * Client side copies, reused when uploading
+     */
+    protected FloatBuffer vertices;
+    protected IntBuffer indices;
+
+    /**
+     * Number of indices
+     */
+    protected int numIndices;
+
+    /**
+     * Quads faces - otherwise triangles
+     */
+    protected boolean quads;
+
+    /**
+     * Whether the vertices have the face normals
+     */
+    protected boolean flat;
+
+    /**
+     * Whether the vertices are expected to change
+     */
+    protected boolean dynamic;
+
+    /**
+     * Vertex version of the mesh when the vertices were uploaded
+     */
+    protected int vertexVersion;
+
+    /**
+     * Frame in which the buffer was last drawn, used by the renderer to
+     * release the buffers of meshes that are gone
+     */
+    int lastFrame;
+
+    /**
+     * Create the buffer objects and upload m, with face normals if flat is
+     * set or m has no vertex normals. dynamic is a hint that the vertices
+     * will be updated often.
+     */
+    public GLMeshBuffer(GL gl, Mesh m, boolean flat, boolean dynamic) {
+        this.dynamic = dynamic;
+        int[] names = new int[2];
+        gl.glGenBuffers(2, names, 0);
+        vertexBuffer = names[0];
+        indexBuffer = names[1];
+        upload(gl, m, flat);
+    }
+
+    /**
+     * Returns whether the vertices have the face normals.
+     */
+    public boolean isFlat() {
+        return flat;
+    }
+
+    /**
+     * Upload vertices and faces of m.
+     */
+    public void upload(GL gl, Mesh m, boolean flat) {
+        this.flat = flat || !m.hasVertexNormals();
+        quads = m.quads;
+        int vpf = m.verticesPerFace();
+        numIndices = m.getNumFaces() * vpf;
+        int nV = this.flat ? numIndices : m.getNumVertices();
+
+        vertices = BufferUtil.newFloatBuffer(nV * VERTEX_SIZE);
+        fillVertices(m);
+        indices = BufferUtil.newIntBuffer(numIndices);
+        if(this.flat) {
+            for(int i = 0; i < numIndices; i ++) {
+                indices.put(i, i);
+            }
+        } else {
+            indices.put(m.faceIds, 0, numIndices);
+            indices.rewind();
+        }
+
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vertexBuffer);
+        gl.glBufferData(GL.GL_ARRAY_BUFFER, nV * VERTEX_SIZE * BufferUtil.SIZEOF_FLOAT,
+                vertices, dynamic ? GL.GL_DYNAMIC_DRAW : GL.GL_STATIC_DRAW);
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+        gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, indexBuffer);
+        gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, numIndices * BufferUtil.SIZEOF_INT,
+                indices, GL.GL_STATIC_DRAW);
+        gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);
+        vertexVersion = m.getVertexVersion();
+    }
+
+    /**
+     * Returns whether the vertices of m changed since they were uploaded.
+     */
+    public boolean isOutdated(Mesh m) {
+        return vertexVersion != m.getVertexVersion();
+    }
+
+    /**
+     * Upload again the positions and normals of m, which must have the
+     * same faces as when the buffer was created. The index buffer is kept.
+     */
+    public void updateVertices(GL gl, Mesh m) {
+        fillVertices(m);
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vertexBuffer);
+        gl.glBufferSubData(GL.GL_ARRAY_BUFFER, 0, vertices.capacity() * BufferUtil.SIZEOF_FLOAT, vertices);
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+        vertexVersion = m.getVertexVersion();
+    }
+
+    /**
+     * Copy positions and normals of m in the client side vertex buffer.
+     */
+    protected void fillVertices(Mesh m) {
+        if(!m.isPacked()) {
+            fillUnpackedVertices(m);
+            return;
+        }
+        double[] pos = m.packedPos;
+        double[] norm = m.packedNormal;
+        FloatBuffer vb = vertices;
+        if(!flat) {
+            int nV = m.getNumVertices();
+            for(int v = 0; v < nV; v ++) {
+                int o = v*VERTEX_SIZE;
+                vb.put(o+0, (float)pos[v*3+0]);
+                vb.put(o+1, (float)pos[v*3+1]);
+                vb.put(o+2, (float)pos[v*3+2]);
+                vb.put(o+3, (float)norm[v*3+0]);
+                vb.put(o+4, (float)norm[v*3+1]);
+                vb.put(o+5, (float)norm[v*3+2]);
+            }
+            return;
+        }
+        int[] faceIds = m.faceIds;
+        int vpf = m.verticesPerFace();
+        for(int f = 0; f < m.getNumFaces(); f ++) {
+            int i0 = faceIds[f*vpf+0]*3;
+            int i1 = faceIds[f*vpf+1]*3;
+            int i2 = faceIds[f*vpf+2]*3;
+            double ax = pos[i1+0]-pos[i0+0], ay = pos[i1+1]-pos[i0+1], az = pos[i1+2]-pos[i0+2];
+            double bx = pos[i2+0]-pos[i0+0], by = pos[i2+1]-pos[i0+1], bz = pos[i2+2]-pos[i0+2];
+            double nx = ay*bz - az*by;
+            double ny = az*bx - ax*bz;
+            double nz = ax*by - ay*bx;
+            double l = Math.sqrt(nx*nx + ny*ny + nz*nz);
+            if(l > 0) {
+                nx /= l; ny /= l; nz /= l;
+            }
+            for(int v = 0; v < vpf; v ++) {
+                int idx = faceIds[f*vpf+v]*3;
+                int o = (f*vpf+v)*VERTEX_SIZE;
+                vb.put(o+0, (float)pos[idx+0]);
+                vb.put(o+1, (float)pos[idx+1]);
+                vb.put(o+2, (float)pos[idx+2]);
+                vb.put(o+3, (float)nx);
+                vb.put(o+4, (float)ny);
+                vb.put(o+5, (float)nz);
+            }
+        }
+    }
+
+    /**
+     * Same as fillVertices for a mesh that is not packed, which tesselate
+     * never produces, through the vertex accessors.
+     */
+    private void fillUnpackedVertices(Mesh m) {
+        Vec3 p = new Vec3(), n = new Vec3(), e1 = new Vec3(), e2 = new Vec3();
+        if(!flat) {
+            for(int v = 0; v < m.getNumVertices(); v ++) {
+                putVertex(v, m.getVertexPos(v, p), m.getVertexNormal(v, n));
+            }
+            return;
+        }
+        int vpf = m.verticesPerFace();
+        for(int f = 0; f < m.getNumFaces(); f ++) {
+            m.getVertexPos(m.getFaceVertexIndex(f, 0), p);
+            Vec3.subInto(m.getVertexPos(m.getFaceVertexIndex(f, 1), e1), p, e1);
+            Vec3.subInto(m.getVertexPos(m.getFaceVertexIndex(f, 2), e2), p, e2);
+            Vec3.normalizeInto(Vec3.crossInto(e1, e2, n), n);
+            for(int v = 0; v < vpf; v ++) {
+                putVertex(f*vpf+v, m.getVertexPos(m.getFaceVertexIndex(f, v), p), n);
+            }
+        }
+    }
+
+    /**
+     * Store position p and normal n of vertex v in the client side buffer.
+     */
+    private void putVertex(int v, Vec3 p, Vec3 n) {
+        int o = v*VERTEX_SIZE;
+        vertices.put(o+0, (float)p.x);
+        vertices.put(o+1, (float)p.y);
+        vertices.put(o+2, (float)p.z);
+        vertices.put(o+3, (float)n.x);
+        vertices.put(o+4, (float)n.y);
+        vertices.put(o+5, (float)n.z);
+    }
+
+    /**
+     * Bind the buffers and set the vertex and normal arrays to them.
+     * The client state must be saved by the caller.
+     */
+    public void bind(GL gl) {
+        gl.glEnableClientState(GL.GL_VERTEX_ARRAY);
+        gl.glEnableClientState(GL.GL_NORMAL_ARRAY);
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vertexBuffer);
+        gl.glVertexPointer(3, GL.GL_FLOAT, VERTEX_SIZE * BufferUtil.SIZEOF_FLOAT, 0);
+        gl.glNormalPointer(GL.GL_FLOAT, VERTEX_SIZE * BufferUtil.SIZEOF_FLOAT,
+                3 * BufferUtil.SIZEOF_FLOAT);
+        gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, indexBuffer);
+    }
+
+    /**
+     * Draw the mesh. The buffer must be bound.
+     */
+    public void draw(GL gl) {
+        gl.glDrawElements(quads ? GL.GL_QUADS : GL.GL_TRIANGLES, numIndices,
+                GL.GL_UNSIGNED_INT, 0);
+    }
+
+    /**
+     * Unbind any buffer.
+     */
+    public static void unbind(GL gl) {
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+        gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Delete the buffer objects.
+     */
+    public void dispose(GL gl) {
+        gl.glDeleteBuffers(2, new int[] { vertexBuffer, indexBuffer }, 0);
+        vertexBuffer = 0;
+        indexBuffer = 0;
+    }
+}
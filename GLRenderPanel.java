@@ -6,8 +6,13 @@ import javax.media.opengl.GLEventListener;
 import javax.media.opengl.glu.GLU;
 import javax.swing.JPanel;
 
+import com.sun.opengl.util.BufferUtil;
+
 import java.awt.BorderLayout;
 import java.awt.Dimension;
+import java.nio.FloatBuffer;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 
 /**
  * Provides rendering through OpenGL.
@@ -78,6 +83,63 @@ public class GLRenderPanel extends JPanel implements GLEventListener {
      */
     protected boolean particleAsPoints;
     
+    /**
+     * Column major matrix buffer reused when uploading matrices to GL
+     */
+    protected double[] matrixBuffer = new double[16];
+    
+    /**
+     * Camera look-at target, reused every frame
+     */
+    protected Vec3 cameraTarget = new Vec3();
+    
+    /**
+     * Camera viewing matrix, updated every frame
+     */
+    protected Mat4 viewMatrix = new Mat4();
+    
+    /**
+     * Modelview matrix of the transform being drawn
+     */
+    protected Mat4 modelViewMatrix = new Mat4();
+    
+    /**
+     * Index of the transform whose matrix is loaded, -1 if none
+     */
+    protected int loadedTransform;
+    
+    /**
+     * Whether vertex buffer objects are available. Without them everything
+     * is drawn in immediate mode.
+     */
+    protected boolean vboAvailable;
+    
+    /**
+     * GL buffers of the meshes drawn with vertex buffer objects
+     */
+    protected IdentityHashMap<Mesh,GLMeshBuffer> meshBuffers = new IdentityHashMap<Mesh,GLMeshBuffer>();
+    
+    /**
+     * Frame counter, used to release the buffers of the meshes no longer drawn
+     */
+    protected int frame;
+    
+    /**
+     * Material of the particles, their diffuse color is set per particle
+     */
+    protected Phong particleMaterial;
+    
+    /**
+     * Particle positions and colors streamed for the points mode,
+     * x,y,z,r,g,b floats per particle
+     */
+    protected FloatBuffer particlePoints;
+    
+    /**
+     * Name of the vertex buffer object of particlePoints, 0 if not created
+     */
+    protected int particlePointsBuffer;
+    
 	/**
 	 * Default constructor
 	 */
@@ -189,6 +251,12 @@ public class GLRenderPanel extends JPanel implements GLEventListener {
 		
 		// glu
 		glu = new GLU();
+        
+        // buffers of a previous context are gone with it
+        vboAvailable = gl.isFunctionAvailable("glGenBuffers") &&
+                       gl.isFunctionAvailable("glBindBuffer");
+        meshBuffers.clear();
+        particlePointsBuffer = 0;
 	}
 
 	/**
@@ -198,6 +266,7 @@ public class GLRenderPanel extends JPanel implements GLEventListener {
 	public void display(GLAutoDrawable glD) {
 		// get GL
 		GL gl = glD.getGL();
+        frame ++;
 		
 		// clear
 		gl.glClear(GL.GL_COLOR_BUFFER_BIT | GL.GL_DEPTH_BUFFER_BIT);
@@ -241,7 +310,9 @@ public class GLRenderPanel extends JPanel implements GLEventListener {
 		drawCamera(gl, glu, scene.camera);
         
 		// hierarchically draw using gl
-        drawNode(gl, scene.hierarchyRoot);
+        scene.updateWorldMatrices();
+        drawCompiledScene(gl, scene.getCompiledScene());
+        releaseMeshBuffers(gl);
 	}
     
     /**
@@ -259,15 +330,9 @@ public class GLRenderPanel extends JPanel implements GLEventListener {
         }
         gl.glMatrixMode(GL.GL_MODELVIEW);
         gl.glLoadIdentity();
-        glu.gluLookAt(c.origin.x,
-                      c.origin.y,
-                      c.origin.z,
-                      c.origin.add(scene.camera.z.negate()).x,
-                      c.origin.add(scene.camera.z.negate()).y,
-                      c.origin.add(scene.camera.z.negate()).z,
-                      c.y.x,
-                      c.y.y,
-                      c.y.z);        
+        Vec3 target = Vec3.scaleAddInto(c.origin, -1, scene.camera.z, cameraTarget);
+        viewMatrix.setLookAt(c.origin, target, c.y);
+        gl.glLoadMatrixd(viewMatrix.getFlatDataColumnMajor(matrixBuffer,0),0);
     }
     
     /**
@@ -301,26 +366,47 @@ public class GLRenderPanel extends JPanel implements GLEventListener {
     }
     
     /**
-     * GL hierarchy commands.
-     */
-    protected void drawNode(GL gl, HierarchyNode n) {
-        if(n instanceof Transform) {
-            Transform t = (Transform)n;
-            drawTransform(gl, t);
-        } else if(n instanceof SkinnedMesh && viewMode == DRAWMODE_BONES) {
-            SkinnedMesh s = (SkinnedMesh)n; 
-            drawMeshGeometryWithBoneColor(gl,s.tesselatedMesh,s);
-            drawBones(gl, s.bones);
-        } else if(n instanceof Surface) {
-            Surface s = (Surface)n; 
-            drawMaterial(gl,s.material);
-            drawMeshGeometry(gl,s.tesselatedMesh);
-        } else if(n instanceof ParticleSystem) {
-            ParticleSystem s = (ParticleSystem)n;
-            drawParticleSystem(gl,s);
-        } else {
-            System.out.println("Should never have gotten here!");
+     * GL hierarchy commands. The leaves are drawn kind by kind, each with
+     * the world matrix of its transform.
+     */
+    protected void drawCompiledScene(GL gl, CompiledScene cs) {
+        gl.glMatrixMode(GL.GL_MODELVIEW);
+        gl.glPushMatrix();
+        loadedTransform = -1;
+        for(int i = 0; i < cs.surfaces.length; i ++) {
+            loadTransform(gl, cs, cs.surfaceParent[i]);
+            drawMaterial(gl,cs.surfaces[i].material);
+            drawMesh(gl,cs.surfaces[i].tesselatedMesh,false);
+        }
+        for(int i = 0; i < cs.skinnedMeshes.length; i ++) {
+            SkinnedMesh s = cs.skinnedMeshes[i];
+            loadTransform(gl, cs, cs.skinnedMeshParent[i]);
+            if(viewMode == DRAWMODE_BONES) {
+                drawMeshGeometryWithBoneColor(gl,s.tesselatedMesh,s);
+                drawBones(gl, s.bones);
+            } else {
+                drawMaterial(gl,s.material);
+                drawMesh(gl,s.tesselatedMesh,true);
+            }
         }
+        for(int i = 0; i < cs.particleSystems.length; i ++) {
+            loadTransform(gl, cs, cs.particleSystemParent[i]);
+            drawParticleSystem(gl,cs.particleSystems[i]);
+        }
+        gl.glPopMatrix();
+    }
+    
+    /**
+     * Load view times the world matrix of transform k, unless it is
+     * already loaded.
+     */
+    private void loadTransform(GL gl, CompiledScene cs, int k) {
+        if(k == loadedTransform) {
+            return;
+        }
+        Mat4.multiplyInto(viewMatrix, cs.transforms[k].getWorldMatrix(), modelViewMatrix);
+        gl.glLoadMatrixd(modelViewMatrix.getFlatDataColumnMajor(matrixBuffer,0),0);
+        loadedTransform = k;
     }
 
     /**
@@ -332,7 +418,7 @@ public class GLRenderPanel extends JPanel implements GLEventListener {
         for(int b = 0; b < bones.length; b ++) {
             gl.glMatrixMode(GL.GL_MODELVIEW);
             gl.glPushMatrix();
-            gl.glMultMatrixd(bones[b].m.getFlatDataColumnMajor(),0);
+            gl.glMultMatrixd(bones[b].m.getFlatDataColumnMajor(matrixBuffer,0),0);
             //gl.glScaled(bones[b].size.x, bones[b].size.y, bones[b].size.z);
             gl.glBegin(GL.GL_LINES);
             gl.glColor3d(bones[b].color.r, bones[b].color.g, bones[b].color.b);
@@ -371,19 +457,157 @@ public class GLRenderPanel extends JPanel implements GLEventListener {
     }
 
     /**
-     * Draws a particle system
+     * Draws a particle system. The geometry of the particles is uploaded
+     * once and drawn for every particle with its own matrix and color,
+     * points are streamed to a vertex buffer and drawn with one call.
      */
     private void drawParticleSystem(GL gl, ParticleSystem s) {
+        if(!vboAvailable) {
+            drawParticleSystemImmediate(gl, s);
+            return;
+        }
+        ParticleBuffer b = s.particles;
+        double[] pos = b.position;
+        float[] color = b.color;
+        if(particleAsPoints) {
+            int n = b.count;
+            if(particlePoints == null || particlePoints.capacity() < n*6) {
+                particlePoints = BufferUtil.newFloatBuffer(n*6);
+            }
+            FloatBuffer pb = particlePoints;
+            for(int p = 0; p < n; p ++) {
+                pb.put(p*6+0, (float)pos[p*3+0]);
+                pb.put(p*6+1, (float)pos[p*3+1]);
+                pb.put(p*6+2, (float)pos[p*3+2]);
+                pb.put(p*6+3, color[p*3+0]);
+                pb.put(p*6+4, color[p*3+1]);
+                pb.put(p*6+5, color[p*3+2]);
+            }
+            if(particlePointsBuffer == 0) {
+                int[] name = new int[1];
+                gl.glGenBuffers(1, name, 0);
+                particlePointsBuffer = name[0];
+            }
+            gl.glPushAttrib(GL.GL_LIGHTING_BIT);
+            gl.glDisable(GL.GL_LIGHTING);
+            gl.glPushClientAttrib(GL.GL_CLIENT_VERTEX_ARRAY_BIT);
+            gl.glBindBuffer(GL.GL_ARRAY_BUFFER, particlePointsBuffer);
+            gl.glBufferData(GL.GL_ARRAY_BUFFER, n*6*BufferUtil.SIZEOF_FLOAT, pb, GL.GL_STREAM_DRAW);
+            gl.glEnableClientState(GL.GL_VERTEX_ARRAY);
+            gl.glEnableClientState(GL.GL_COLOR_ARRAY);
+            gl.glVertexPointer(3, GL.GL_FLOAT, 6*BufferUtil.SIZEOF_FLOAT, 0);
+            gl.glColorPointer(3, GL.GL_FLOAT, 6*BufferUtil.SIZEOF_FLOAT, 3*BufferUtil.SIZEOF_FLOAT);
+            gl.glDrawArrays(GL.GL_POINTS, 0, n);
+            GLMeshBuffer.unbind(gl);
+            gl.glPopClientAttrib();
+            gl.glPopAttrib();
+        } else {
+            GLMeshBuffer mb = getMeshBuffer(gl, s.geometry.tesselatedMesh, false);
+            if(particleMaterial == null) {
+                particleMaterial = new Phong();
+                particleMaterial.specular = new Color();
+                particleMaterial.exponent = 10;
+                particleMaterial.diffuse = new Color(1,1,1);
+            }
+            drawMaterial(gl,particleMaterial);
+            gl.glPushAttrib(GL.GL_LIGHTING_BIT);
+            gl.glColorMaterial(GL.GL_FRONT_AND_BACK, GL.GL_AMBIENT_AND_DIFFUSE);
+            gl.glEnable(GL.GL_COLOR_MATERIAL);
+            gl.glPushClientAttrib(GL.GL_CLIENT_VERTEX_ARRAY_BIT);
+            mb.bind(gl);
+            // modelview times translation and scale of each particle,
+            // written directly in column major order
+            double[] mv = modelViewMatrix.d;
+            double[] m = matrixBuffer;
+            for(int p = 0; p < b.count; p ++) {
+                double x = pos[p*3+0], y = pos[p*3+1], z = pos[p*3+2];
+                double size = b.size[p];
+                for(int i = 0; i < 4; i ++) {
+                    m[ 0+i] = mv[i*4+0] * size;
+                    m[ 4+i] = mv[i*4+1] * size;
+                    m[ 8+i] = mv[i*4+2] * size;
+                    m[12+i] = mv[i*4+0]*x + mv[i*4+1]*y + mv[i*4+2]*z + mv[i*4+3];
+                }
+                gl.glLoadMatrixd(m,0);
+                gl.glColor3f(color[p*3+0],color[p*3+1],color[p*3+2]);
+                mb.draw(gl);
+            }
+            GLMeshBuffer.unbind(gl);
+            gl.glPopClientAttrib();
+            gl.glPopAttrib();
+            gl.glLoadMatrixd(modelViewMatrix.getFlatDataColumnMajor(matrixBuffer,0),0);
+        }
+    }
+    
+    /**
+     * Draw a mesh with a single glDrawElements from its vertex buffer
+     * objects, or in immediate mode if they are not available.
+     * dynamic tells that the mesh is animated in place.
+     */
+    private void drawMesh(GL gl, Mesh m, boolean dynamic) {
+        if(!vboAvailable) {
+            drawMeshGeometry(gl, m);
+            return;
+        }
+        GLMeshBuffer mb = getMeshBuffer(gl, m, dynamic);
+        gl.glPushClientAttrib(GL.GL_CLIENT_VERTEX_ARRAY_BIT);
+        mb.bind(gl);
+        mb.draw(gl);
+        GLMeshBuffer.unbind(gl);
+        gl.glPopClientAttrib();
+    }
+    
+    /**
+     * Returns the buffer of m, uploading it if it is new or if its
+     * normals do not match the lighting mode, and uploading only its
+     * vertices if they changed since the last draw.
+     */
+    private GLMeshBuffer getMeshBuffer(GL gl, Mesh m, boolean dynamic) {
+        boolean flat = viewLighting != LIGHTINGMODE_SMOOTH;
+        GLMeshBuffer mb = meshBuffers.get(m);
+        if(mb == null) {
+            mb = new GLMeshBuffer(gl, m, flat, dynamic);
+            meshBuffers.put(m, mb);
+        } else if(mb.isFlat() != (flat || !m.hasVertexNormals())) {
+            mb.upload(gl, m, flat);
+        } else if(mb.isOutdated(m)) {
+            mb.updateVertices(gl, m);
+        }
+        mb.lastFrame = frame;
+        return mb;
+    }
+    
+    /**
+     * Delete the buffers of the meshes not drawn in this frame, such as
+     * the meshes replaced when the scene is tesselated again.
+     */
+    private void releaseMeshBuffers(GL gl) {
+        Iterator<GLMeshBuffer> it = meshBuffers.values().iterator();
+        while(it.hasNext()) {
+            GLMeshBuffer mb = it.next();
+            if(mb.lastFrame != frame) {
+                mb.dispose(gl);
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Draws a particle system in immediate mode, one particle at a time
+     */
+    private void drawParticleSystemImmediate(GL gl, ParticleSystem s) {
+        ParticleBuffer b = s.particles;
+        double[] pos = b.position;
+        float[] color = b.color;
         if(particleAsPoints) {
             gl.glPushAttrib(GL.GL_LIGHTING_BIT);
             gl.glDisable(GL.GL_LIGHTING);
             gl.glColor3d(1,1,1);
             gl.glBegin(GL.GL_POINTS);
-            for(int p = 0; p < s.particles.length; p ++) {
-                ParticleState ps = s.particles[p];
-                gl.glColor3d(ps.color.r,ps.color.g,ps.color.b);
+            for(int p = 0; p < b.count; p ++) {
+                gl.glColor3f(color[p*3+0],color[p*3+1],color[p*3+2]);
                 gl.glNormal3d(1,1,1);
-                gl.glVertex3d(ps.position.x,ps.position.y,ps.position.z);
+                gl.glVertex3d(pos[p*3+0],pos[p*3+1],pos[p*3+2]);
             }
             gl.glEnd();
             gl.glPopAttrib();
@@ -395,12 +619,12 @@ public class GLRenderPanel extends JPanel implements GLEventListener {
             phong.exponent = 10;
             phong.diffuse = new Color(1,1,1);
             drawMaterial(gl,phong);
-            for(int p = 0; p < s.particles.length; p ++) {
-                ParticleState ps = s.particles[p];
+            for(int p = 0; p < b.count; p ++) {
+                double size = b.size[p];
                 gl.glPushMatrix();
-                gl.glTranslated(ps.position.x,ps.position.y,ps.position.z);
-                gl.glScaled(ps.size,ps.size,ps.size);
-                phong.diffuse.set(ps.color);
+                gl.glTranslated(pos[p*3+0],pos[p*3+1],pos[p*3+2]);
+                gl.glScaled(size,size,size);
+                phong.diffuse.set(color[p*3+0],color[p*3+1],color[p*3+2]);
                 drawMaterial(gl,phong);
                 drawMeshGeometry(gl,m);
                 gl.glPopMatrix();
@@ -409,10 +633,21 @@ public class GLRenderPanel extends JPanel implements GLEventListener {
     }
 
     /**
+     * Draw a mesh in immediate mode reading directly from its packed arrays.
+     * Meshes that are not packed, which tesselate never produces, are
+     * drawn through the vertex accessors.
      */
     private void drawMeshGeometry(GL gl, Mesh m) {
+        if(!m.isPacked()) {
+            drawUnpackedMeshGeometry(gl, m);
+            return;
+        }
+        double[] pos = m.packedPos;
+        double[] norm = m.packedNormal;
+        int[] faceIds = m.faceIds;
+        int vpf = m.verticesPerFace();
         boolean useFaceNormal;
-        if(viewLighting != LIGHTINGMODE_SMOOTH || m.vertexNormal == null) {
+        if(viewLighting != LIGHTINGMODE_SMOOTH || norm == null) {
             useFaceNormal = true;
         } else {
             useFaceNormal = false;
@@ -424,18 +659,58 @@ public class GLRenderPanel extends JPanel implements GLEventListener {
                 gl.glBegin(GL.GL_TRIANGLES);
             }
             if(useFaceNormal) {
-                Vec3 v0 = m.vertexPos[m.getFaceVertexIndex(f,1)].sub(m.vertexPos[m.getFaceVertexIndex(f,0)]);
-                Vec3 v1 = m.vertexPos[m.getFaceVertexIndex(f,2)].sub(m.vertexPos[m.getFaceVertexIndex(f,0)]);
-                Vec3 faceN = v0.cross(v1).normalize();
-                gl.glNormal3d(faceN.x,faceN.y,faceN.z);
+                int i0 = faceIds[f*vpf+0]*3;
+                int i1 = faceIds[f*vpf+1]*3;
+                int i2 = faceIds[f*vpf+2]*3;
+                double ax = pos[i1+0]-pos[i0+0], ay = pos[i1+1]-pos[i0+1], az = pos[i1+2]-pos[i0+2];
+                double bx = pos[i2+0]-pos[i0+0], by = pos[i2+1]-pos[i0+1], bz = pos[i2+2]-pos[i0+2];
+                double nx = ay*bz - az*by;
+                double ny = az*bx - ax*bz;
+                double nz = ax*by - ay*bx;
+                double l = Math.sqrt(nx*nx + ny*ny + nz*nz);
+                if(l > 0) {
+                    nx /= l; ny /= l; nz /= l;
+                }
+                gl.glNormal3d(nx,ny,nz);
             }
-            for(int v = 0; v < ((m.quads)?4:3); v ++) {
+            for(int v = 0; v < vpf; v ++) {
+                int idx = faceIds[f*vpf+v]*3;
+                if(!useFaceNormal) {
+                    gl.glNormal3d(norm[idx+0],norm[idx+1],norm[idx+2]);
+                }
+                gl.glVertex3d(pos[idx+0],pos[idx+1],pos[idx+2]);
+            }
+            gl.glEnd();
+        }
+    }
+
+    /**
+     * Draw a mesh that is not packed in immediate mode.
+     */
+    private void drawUnpackedMeshGeometry(GL gl, Mesh m) {
+        boolean useFaceNormal = viewLighting != LIGHTINGMODE_SMOOTH || !m.hasVertexNormals();
+        Vec3 p0 = new Vec3(), p1 = new Vec3(), p2 = new Vec3(), n = new Vec3();
+        for(int f = 0; f < m.getNumFaces(); f ++) {
+            if(m.quads) {
+                gl.glBegin(GL.GL_QUADS);
+            } else {
+                gl.glBegin(GL.GL_TRIANGLES);
+            }
+            if(useFaceNormal) {
+                m.getVertexPos(m.getFaceVertexIndex(f,0), p0);
+                Vec3.subInto(m.getVertexPos(m.getFaceVertexIndex(f,1), p1), p0, p1);
+                Vec3.subInto(m.getVertexPos(m.getFaceVertexIndex(f,2), p2), p0, p2);
+                Vec3.normalizeInto(Vec3.crossInto(p1, p2, n), n);
+                gl.glNormal3d(n.x,n.y,n.z);
+            }
+            for(int v = 0; v < m.verticesPerFace(); v ++) {
+                int idx = m.getFaceVertexIndex(f, v);
                 if(!useFaceNormal) {
-                    Vec3 N = m.vertexNormal[m.getFaceVertexIndex(f, v)];
-                    gl.glNormal3d(N.x,N.y,N.z);
+                    m.getVertexNormal(idx, n);
+                    gl.glNormal3d(n.x,n.y,n.z);
                 }
-                Vec3 P = m.vertexPos[m.getFaceVertexIndex(f, v)];
-                gl.glVertex3d(P.x,P.y,P.z);
+                m.getVertexPos(idx, p0);
+                gl.glVertex3d(p0.x,p0.y,p0.z);
             }
             gl.glEnd();
         }
@@ -444,49 +719,36 @@ public class GLRenderPanel extends JPanel implements GLEventListener {
     /**
      */
     private void drawMeshGeometryWithBoneColor(GL gl, Mesh m, SkinnedMesh sm) {
+        Vec3 p = new Vec3();
         gl.glPushAttrib(GL.GL_LIGHTING_BIT);
         gl.glDisable(GL.GL_LIGHTING);
+        Color color = new Color();
         for(int f = 0; f < m.getNumFaces(); f ++) {
             if(m.quads) {
                 gl.glBegin(GL.GL_QUADS);                                    
             } else {
                 gl.glBegin(GL.GL_TRIANGLES);
             }
-            Color color = new Color();
             for(int v = 0; v < ((m.quads)?4:3); v ++) {
                 int idx = m.getFaceVertexIndex(f, v);
                 color.set(0,0,0);
-                for(int b = 0; b < sm.bones.length; b ++) {
-                    color.setToAdd(sm.bones[b].color.scale(sm.vertexWeights[idx][b]));
+                // influences are sorted by weight, unused slots have no weight
+                for(int i = 0; i < SkinnedMesh.MAX_INFLUENCES; i ++) {
+                    int o = idx*SkinnedMesh.MAX_INFLUENCES+i;
+                    if(sm.influenceWeights[o] == 0) {
+                        break;
+                    }
+                    color.setToScaleAdd(sm.influenceWeights[o], sm.bones[sm.influenceBones[o]].color);
                 }
                 gl.glColor3d(color.r,color.g,color.b);
-                Vec3 P = m.vertexPos[idx];
-                gl.glVertex3d(P.x,P.y,P.z);
+                m.getVertexPos(idx, p);
+                gl.glVertex3d(p.x,p.y,p.z);
             }
             gl.glEnd();
         }
         gl.glPopAttrib();
     }
 
-    /**
-     * @param gl
-     * @param glu
-     * @param t
-     */
-    private void drawTransform(GL gl, Transform t) {
-        gl.glMatrixMode(GL.GL_MODELVIEW);
-        gl.glPushMatrix();
-        gl.glTranslated(t.translation.x, t.translation.y, t.translation.z);
-        gl.glScaled(t.scale.x, t.scale.y, t.scale.z);
-        gl.glRotated(t.rotation.x * 180 / Math.PI, 1, 0, 0);
-        gl.glRotated(t.rotation.y * 180 / Math.PI, 0, 1, 0);
-        gl.glRotated(t.rotation.z * 180 / Math.PI, 0, 0, 1);
-        for(int i = 0; i < t.children.length; i ++) {
-            drawNode(gl,t.children[i]);
-        }
-        gl.glPopMatrix();
-    }
-    
     /**
      * GL material and color commands
      */
@@ -515,4 +777,4 @@ public class GLRenderPanel extends JPanel implements GLEventListener {
 	public void reshape(GLAutoDrawable glD, int arg1, int arg2, int arg3, int arg4) {
 	}
 	
-}
\ No newline at end of file
+}
\ No newline at end of file
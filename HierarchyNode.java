@@ -3,6 +3,11 @@
  * @author fabio
  */
 public abstract class HierarchyNode {
+    /**
+     * Whether this node or any of its descendants changes over time.
+     * Set by updateAnimated; until then every node is considered animated.
+     */
+    protected boolean animated = true;
     
     /**
      * Tesselate surfaces.
@@ -18,4 +23,28 @@ public abstract class HierarchyNode {
      * Reset the animation at time 0.
      */
     public abstract void restartAnimation();
+    
+    /**
+     * Returns whether this subtree changes over time.
+     * Static subtrees are skipped by animate.
+     */
+    public boolean isAnimated() {
+        return animated;
+    }
+    
+    /**
+     * Rough estimate of the work done by animate, used to decide whether
+     * animating in parallel pays off. The unit is the work per vertex
+     * or per particle.
+     */
+    public int getAnimationCost() {
+        return 1;
+    }
+    
+    /**
+     * Recompute whether this subtree changes over time and return it.
+     * Called once after parsing; must be called again after structural edits
+     * or after adding or removing animation curves.
+     */
+    public abstract boolean updateAnimated();
 }
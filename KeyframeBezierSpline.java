@@ -17,13 +17,184 @@ public class KeyframeBezierSpline extends Vec3Animation {
      * There are (keyframeTimes.length-1) * 4 control points.
      */
     public double[] keyframeTimes;
+    
+    /**
+     * Segment found by the last lookup. Playback advances time monotonically,
+     * so the next lookup usually hits this segment or the following one.
+     */
+    private int lastSegment;
 	
+    /**
+     * Power basis coefficients of each segment, computed from the control
+     * points by updateCoefficients. Segment k stores a,b,c,d for x, then y,
+     * then z starting at k*12, so that p(u) = a + b u + c u^2 + d u^3.
+     */
+    private double[] coefficients;
+	
+    /**
+     * Parser callback: precompute the segment coefficients.
+     */
+    public void initFromParser() {
+        updateCoefficients();
+    }
+    
+    /**
+     * Recompute the segment coefficients from the control points.
+     * Must be called after changing the control points of a curve
+     * that has already been evaluated.
+     */
+    public void updateCoefficients() {
+        int nSegments = Math.max(keyframeTimes.length - 1, 0);
+        double[] c = new double[nSegments * 12];
+        for(int k = 0; k < nSegments; k ++) {
+            Vec3 p0 = keyframeControlPoints[k*4+0];
+            Vec3 p1 = keyframeControlPoints[k*4+1];
+            Vec3 p2 = keyframeControlPoints[k*4+2];
+            Vec3 p3 = keyframeControlPoints[k*4+3];
+            setCoefficients(c, k*12+0, p0.x, p1.x, p2.x, p3.x);
+            setCoefficients(c, k*12+4, p0.y, p1.y, p2.y, p3.y);
+            setCoefficients(c, k*12+8, p0.z, p1.z, p2.z, p3.z);
+        }
+        coefficients = c;
+    }
+    
+    /**
+     * Convert the Bezier control values of one component to the power basis.
+     */
+    private static void setCoefficients(double[] c, int i,
+            double p0, double p1, double p2, double p3) {
+        c[i+0] = p0;
+        c[i+1] = 3*(p1 - p0);
+        c[i+2] = 3*(p0 - 2*p1 + p2);
+        c[i+3] = -p0 + 3*p1 - 3*p2 + p3;
+    }
+    
     /** 
      * Evaluate the spline at time t.
      * It first find the proper segments given the time frames defined.
      * It then evaluate the spline segment after normalizing the t value for this segment.
+     * Times outside the keyframe range are clamped to the first or last keyframe.
      */
     public Vec3 evaluate(double t) {
-        throw new NotImplementedException();
-    }    
+        return evaluateInto(t, new Vec3());
+    }
+    
+    /**
+     * Evaluate the spline at time t and store it in dest, without allocating.
+     * Returns dest.
+     */
+    public Vec3 evaluateInto(double t, Vec3 dest) {
+        if(keyframeTimes.length < 2) {
+            dest.set(0,0,0);
+            return dest;
+        }
+        if(coefficients == null || coefficients.length != (keyframeTimes.length-1)*12) {
+            updateCoefficients();
+        }
+        
+        // find the segment and normalize t
+        int k = findSegment(t);
+        double u = segmentTime(k, t);
+        
+        // evaluate the segment polynomials with Horner's rule
+        double[] c = coefficients;
+        int i = k*12;
+        dest.x = ((c[i+ 3]*u + c[i+ 2])*u + c[i+ 1])*u + c[i+ 0];
+        dest.y = ((c[i+ 7]*u + c[i+ 6])*u + c[i+ 5])*u + c[i+ 4];
+        dest.z = ((c[i+11]*u + c[i+10])*u + c[i+ 9])*u + c[i+ 8];
+        return dest;
+    }
+    
+    /**
+     * Evaluate the spline at all the given times, storing x,y,z for
+     * times[i] at out[i*3]. Sorted times are evaluated by walking the
+     * segments forward; unsorted times are still handled correctly.
+     */
+    public void evaluateBatch(double[] times, double[] out) {
+        if(keyframeTimes.length < 2) {
+            java.util.Arrays.fill(out, 0, times.length*3, 0);
+            return;
+        }
+        if(times.length == 0) {
+            return;
+        }
+        if(coefficients == null || coefficients.length != (keyframeTimes.length-1)*12) {
+            updateCoefficients();
+        }
+        
+        double[] c = coefficients;
+        int lastK = keyframeTimes.length - 2;
+        int k = findSegment(times[0]);
+        int segment = -1;
+        double t0 = 0;
+        double invDuration = 0;
+        for(int j = 0; j < times.length; j ++) {
+            double t = times[j];
+            if(k > 0 && t < keyframeTimes[k]) {
+                // time went backwards
+                k = findSegment(t);
+            } else {
+                while(k < lastK && t >= keyframeTimes[k+1]) {
+                    k ++;
+                }
+            }
+            if(k != segment) {
+                // entering a new segment
+                segment = k;
+                t0 = keyframeTimes[k];
+                double t1 = keyframeTimes[k+1];
+                invDuration = (t1 > t0) ? 1 / (t1 - t0) : 0;
+            }
+            double u = Math.min(Math.max((t - t0) * invDuration, 0), 1);
+            int i = k*12;
+            out[j*3+0] = ((c[i+ 3]*u + c[i+ 2])*u + c[i+ 1])*u + c[i+ 0];
+            out[j*3+1] = ((c[i+ 7]*u + c[i+ 6])*u + c[i+ 5])*u + c[i+ 4];
+            out[j*3+2] = ((c[i+11]*u + c[i+10])*u + c[i+ 9])*u + c[i+ 8];
+        }
+        lastSegment = k;
+    }
+    
+    /**
+     * Normalize t to the [0,1] range of segment k.
+     */
+    private double segmentTime(int k, double t) {
+        double t0 = keyframeTimes[k];
+        double t1 = keyframeTimes[k+1];
+        double u = (t1 > t0) ? (t - t0) / (t1 - t0) : 0;
+        return Math.min(Math.max(u, 0), 1);
+    }
+    
+    /**
+     * Returns the segment k such that keyframeTimes[k] <= t < keyframeTimes[k+1],
+     * clamped to the first and last segment.
+     * Checks the last segment found and the following one before falling back
+     * to a binary search.
+     */
+    protected int findSegment(double t) {
+        int nSegments = keyframeTimes.length - 1;
+        int k = lastSegment;
+        if(k < nSegments && keyframeTimes[k] <= t) {
+            if(k == nSegments-1 || t < keyframeTimes[k+1]) {
+                return k;
+            }
+            if(k+1 == nSegments-1 || t < keyframeTimes[k+2]) {
+                lastSegment = k+1;
+                return k+1;
+            }
+        }
+        
+        // binary search for the last keyframe not after t
+        int lo = 0;
+        int hi = nSegments-1;
+        while(lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if(keyframeTimes[mid] <= t) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        lastSegment = lo;
+        return lo;
+    }
 }
@@ -1,116 +1,286 @@
 /**
  * A 4x4 matrix useful when defining transformations.
+ * The components are stored in a flat array in row major order.
+ * Methods ending in Into and the set methods write their result in an
+ * existing matrix or vector, so they can be used without allocating.
  * @author fabio
  */
 public class Mat4 {
     /**
-     * Components
+     * Components, row major: element (i,j) is d[i*4+j]
      */
-    public double       d[][];
-    
+    public double       d[];
+
     /**
      * Default constrctor - creates an identiy matrix, not a zero one!
      */
     public Mat4() {
-        d = new double[4][4];
-        d[0][0] = 1;
-        d[1][1] = 1;
-        d[2][2] = 1;
-        d[3][3] = 1;
+        d = new double[16];
+        setIdentity();
+    }
+
+    /**
+     * Returns element (i,j).
+     */
+    public double get(int i, int j) {
+        return d[i*4+j];
+    }
+
+    /**
+     * Sets element (i,j).
+     */
+    public void set(int i, int j, double v) {
+        d[i*4+j] = v;
+    }
+
+    /**
+     * Assignment.
+     */
+    public void set(Mat4 m) {
+        System.arraycopy(m.d, 0, d, 0, 16);
     }
-    
+
+    /**
+     * Set to identity.
+     */
+    public void setIdentity() {
+        d[ 0] = 1; d[ 1] = 0; d[ 2] = 0; d[ 3] = 0;
+        d[ 4] = 0; d[ 5] = 1; d[ 6] = 0; d[ 7] = 0;
+        d[ 8] = 0; d[ 9] = 0; d[10] = 1; d[11] = 0;
+        d[12] = 0; d[13] = 0; d[14] = 0; d[15] = 1;
+    }
+
     /**
      * Flatten data in row major order.
      */
     public double[] getFlatDataRowMajor() {
-        double r[] = new double[16];
-        r[ 0] = d[0][0]; r[ 1] = d[0][1]; r[ 2] = d[0][2]; r[ 3] = d[0][3];  
-        r[ 4] = d[1][0]; r[ 5] = d[1][1]; r[ 6] = d[1][2]; r[ 7] = d[1][3];  
-        r[ 8] = d[2][0]; r[ 9] = d[2][1]; r[10] = d[2][2]; r[11] = d[2][3];  
-        r[12] = d[3][0]; r[13] = d[3][1]; r[14] = d[3][2]; r[15] = d[3][3];  
-        return r;
+        return getFlatDataRowMajor(new double[16], 0);
     }
-    
+
+    /**
+     * Flatten data in row major order in dest starting at offset.
+     * Returns dest.
+     */
+    public double[] getFlatDataRowMajor(double[] dest, int offset) {
+        System.arraycopy(d, 0, dest, offset, 16);
+        return dest;
+    }
+
     /**
      * Flatten data ni colum major order.
      */
     public double[] getFlatDataColumnMajor() {
-        return transpose().getFlatDataRowMajor();
+        return getFlatDataColumnMajor(new double[16], 0);
     }
-    
+
+    /**
+     * Flatten data in column major order in dest starting at offset.
+     * Returns dest, so it can be passed directly to glLoadMatrixd.
+     */
+    public double[] getFlatDataColumnMajor(double[] dest, int offset) {
+        for(int i = 0; i < 4; i ++) {
+            for(int j = 0; j < 4; j ++) {
+                dest[offset + j*4+i] = d[i*4+j];
+            }
+        }
+        return dest;
+    }
+
     /**
      * Transform a point. Ignores w component (use project for perspective tranforms).
      */
     public Vec3 transform(Vec3 p) {
-        Vec3 tp = new Vec3();
-        
-        tp.x = d[0][0]*p.x + d[0][1]*p.y + d[0][2]*p.z + d[0][3]; 
-        tp.y = d[1][0]*p.x + d[1][1]*p.y + d[1][2]*p.z + d[1][3]; 
-        tp.z = d[2][0]*p.x + d[2][1]*p.y + d[2][2]*p.z + d[2][3]; 
-        
-        return tp;
+        return transformInto(p, new Vec3());
     }
-    
+
+    /**
+     * Transform a point and store it in dest. src and dest can be the same vector.
+     * Returns dest.
+     */
+    public Vec3 transformInto(Vec3 src, Vec3 dest) {
+        double x = src.x, y = src.y, z = src.z;
+        dest.x = d[0]*x + d[1]*y + d[ 2]*z + d[ 3];
+        dest.y = d[4]*x + d[5]*y + d[ 6]*z + d[ 7];
+        dest.z = d[8]*x + d[9]*y + d[10]*z + d[11];
+        return dest;
+    }
+
     /**
      * Grab the unnormalized 3x3 inverse transpose to trasnform normals.
      * Normls are not normalized after this!
      * See Shirley p. 150
      */
     public Mat4 normalTransform() {
-        Mat4 it = new Mat4();
-        
-        it.d[0][0] = d[1][1]*d[2][2] - d[1][2]*d[2][1];
-        it.d[0][1] = d[1][2]*d[2][0] - d[1][0]*d[2][2];
-        it.d[0][2] = d[1][0]*d[2][1] - d[1][1]*d[2][0];
-
-        it.d[1][0] = d[0][2]*d[2][1] - d[0][1]*d[2][2];
-        it.d[1][1] = d[0][0]*d[2][2] - d[0][2]*d[2][0];
-        it.d[1][2] = d[0][1]*d[2][0] - d[0][0]*d[2][1];
-        
-        it.d[2][0] = d[0][1]*d[1][2] - d[0][2]*d[1][1];
-        it.d[2][1] = d[0][2]*d[1][0] - d[0][0]*d[1][2];
-        it.d[2][2] = d[0][0]*d[1][1] - d[0][1]*d[1][0];
-        
-        return it;
-    }
-    
+        return normalTransformInto(new Mat4());
+    }
+
+    /**
+     * Normal transform stored in dest, which must not be this matrix.
+     * Returns dest.
+     */
+    public Mat4 normalTransformInto(Mat4 dest) {
+        double[] it = dest.d;
+
+        it[ 0] = d[5]*d[10] - d[6]*d[9];
+        it[ 1] = d[6]*d[8] - d[4]*d[10];
+        it[ 2] = d[4]*d[9] - d[5]*d[8];
+        it[ 3] = 0;
+
+        it[ 4] = d[2]*d[9] - d[1]*d[10];
+        it[ 5] = d[0]*d[10] - d[2]*d[8];
+        it[ 6] = d[1]*d[8] - d[0]*d[9];
+        it[ 7] = 0;
+
+        it[ 8] = d[1]*d[6] - d[2]*d[5];
+        it[ 9] = d[2]*d[4] - d[0]*d[6];
+        it[10] = d[0]*d[5] - d[1]*d[4];
+        it[11] = 0;
+
+        it[12] = 0; it[13] = 0; it[14] = 0; it[15] = 1;
+
+        return dest;
+    }
+
+    /**
+     * Inverse of a rigid transform, a rotation followed by a translation,
+     * stored in dest, which must not be this matrix. Returns dest.
+     */
+    public Mat4 rigidInverseInto(Mat4 dest) {
+        double[] r = dest.d;
+        // transpose the rotation
+        r[ 0] = d[0]; r[ 1] = d[4]; r[ 2] = d[ 8];
+        r[ 4] = d[1]; r[ 5] = d[5]; r[ 6] = d[ 9];
+        r[ 8] = d[2]; r[ 9] = d[6]; r[10] = d[10];
+        // and rotate back the translation
+        r[ 3] = -(r[0]*d[3] + r[1]*d[7] + r[ 2]*d[11]);
+        r[ 7] = -(r[4]*d[3] + r[5]*d[7] + r[ 6]*d[11]);
+        r[11] = -(r[8]*d[3] + r[9]*d[7] + r[10]*d[11]);
+        r[12] = 0; r[13] = 0; r[14] = 0; r[15] = 1;
+        return dest;
+    }
+
     /**
      * Multiply this matrix by m0. m0 is on the right.
      */
     public Mat4 multiply(Mat4 m0) {
-        Mat4 m = new Mat4();
+        return multiplyInto(this, m0, new Mat4());
+    }
+
+    /**
+     * Computes a * b and stores it in dest. dest can be a or b.
+     * Returns dest.
+     */
+    public static Mat4 multiplyInto(Mat4 a, Mat4 b, Mat4 dest) {
+        double[] x = a.d;
+        double[] y = b.d;
+        double[] r = dest.d;
+        // keep b in locals so that dest can alias it
+        double y0 = y[ 0], y1 = y[ 1], y2 = y[ 2], y3 = y[ 3];
+        double y4 = y[ 4], y5 = y[ 5], y6 = y[ 6], y7 = y[ 7];
+        double y8 = y[ 8], y9 = y[ 9], y10 = y[10], y11 = y[11];
+        double y12 = y[12], y13 = y[13], y14 = y[14], y15 = y[15];
         for(int i = 0; i < 4; i ++) {
-            for(int j = 0; j < 4; j ++) {
-                m.d[i][j] = 0;
-                for(int k = 0; k < 4; k ++) {
-                    m.d[i][j] += d[i][k]*m0.d[k][j];
-                }
-            }
+            double x0 = x[i*4+0], x1 = x[i*4+1], x2 = x[i*4+2], x3 = x[i*4+3];
+            r[i*4+0] = x0*y0 + x1*y4 + x2*y8  + x3*y12;
+            r[i*4+1] = x0*y1 + x1*y5 + x2*y9  + x3*y13;
+            r[i*4+2] = x0*y2 + x1*y6 + x2*y10 + x3*y14;
+            r[i*4+3] = x0*y3 + x1*y7 + x2*y11 + x3*y15;
         }
-        return m;
+        return dest;
     }
-    
+
     /**
      * transpose
      */
     public Mat4 transpose() {
-        Mat4 m = new Mat4();
+        return transposeInto(new Mat4());
+    }
+
+    /**
+     * Transpose stored in dest, which must not be this matrix.
+     * Returns dest.
+     */
+    public Mat4 transposeInto(Mat4 dest) {
         for(int i = 0; i < 4; i ++) {
             for(int j = 0; j < 4; j ++) {
-                m.d[i][j] = d[j][i];
+                dest.d[i*4+j] = d[j*4+i];
             }
         }
-        return m;        
+        return dest;
+    }
+
+    /**
+     * Set to the rotation Rx * Ry * Rz, the same order used by the renderer.
+     */
+    public void setRotationXYZ(double rx, double ry, double rz) {
+        setTRS(0, 0, 0, rx, ry, rz, 1, 1, 1);
+    }
+
+    /**
+     * Set to T * S * Rx * Ry * Rz, the same order used by the renderer
+     * for transform nodes. Rotations are in radians.
+     */
+    public void setTRS(Vec3 t, Vec3 r, Vec3 s) {
+        setTRS(t.x, t.y, t.z, r.x, r.y, r.z, s.x, s.y, s.z);
+    }
+
+    /**
+     * Set to T * S * Rx * Ry * Rz. Rotations are in radians.
+     */
+    public void setTRS(double tx, double ty, double tz,
+                       double rx, double ry, double rz,
+                       double sx, double sy, double sz) {
+        double cx = Math.cos(rx), snx = Math.sin(rx);
+        double cy = Math.cos(ry), sny = Math.sin(ry);
+        double cz = Math.cos(rz), snz = Math.sin(rz);
+
+        d[ 0] = sx * (cy*cz);
+        d[ 1] = sx * (-cy*snz);
+        d[ 2] = sx * sny;
+        d[ 3] = tx;
+
+        d[ 4] = sy * (cx*snz + snx*sny*cz);
+        d[ 5] = sy * (cx*cz - snx*sny*snz);
+        d[ 6] = sy * (-snx*cy);
+        d[ 7] = ty;
+
+        d[ 8] = sz * (snx*snz - cx*sny*cz);
+        d[ 9] = sz * (snx*cz + cx*sny*snz);
+        d[10] = sz * (cx*cy);
+        d[11] = tz;
+
+        d[12] = 0; d[13] = 0; d[14] = 0; d[15] = 1;
     }
-    
+
+    /**
+     * Set to the viewing matrix of a camera at eye looking at target,
+     * the same matrix built by gluLookAt.
+     */
+    public void setLookAt(Vec3 eye, Vec3 target, Vec3 up) {
+        double fx = target.x - eye.x, fy = target.y - eye.y, fz = target.z - eye.z;
+        double fl = 1 / Math.sqrt(fx*fx + fy*fy + fz*fz);
+        fx *= fl; fy *= fl; fz *= fl;
+        // s = f x up
+        double sx = fy*up.z - fz*up.y, sy = fz*up.x - fx*up.z, sz = fx*up.y - fy*up.x;
+        double sl = 1 / Math.sqrt(sx*sx + sy*sy + sz*sz);
+        sx *= sl; sy *= sl; sz *= sl;
+        // u = s x f
+        double ux = sy*fz - sz*fy, uy = sz*fx - sx*fz, uz = sx*fy - sy*fx;
+
+        d[ 0] = sx;  d[ 1] = sy;  d[ 2] = sz;  d[ 3] = -(sx*eye.x + sy*eye.y + sz*eye.z);
+        d[ 4] = ux;  d[ 5] = uy;  d[ 6] = uz;  d[ 7] = -(ux*eye.x + uy*eye.y + uz*eye.z);
+        d[ 8] = -fx; d[ 9] = -fy; d[10] = -fz; d[11] = fx*eye.x + fy*eye.y + fz*eye.z;
+        d[12] = 0;   d[13] = 0;   d[14] = 0;   d[15] = 1;
+    }
+
     /**
      * Create translation matrix
      */
     public static Mat4 translationMatrix(Vec3 t) {
         Mat4 m = new Mat4();
-        m.d[0][3] = t.x;
-        m.d[1][3] = t.y;
-        m.d[2][3] = t.z;
+        m.d[ 3] = t.x;
+        m.d[ 7] = t.y;
+        m.d[11] = t.z;
         return m;
     }
 
@@ -118,65 +288,46 @@ public class Mat4 {
      * Create rotation matrix around x
      */
     public static Mat4 xrotationMatrix(double r) {
-        double cr = Math.cos(r);
-        double sr = Math.sin(r);
         Mat4 m = new Mat4();
-        m.d[1][1] = cr;
-        m.d[1][2] = -sr;
-        m.d[2][1] = sr;
-        m.d[2][2] = cr;
-        return m;        
+        m.setRotationXYZ(r, 0, 0);
+        return m;
     }
-    
+
     /**
      * Create rotation matrix around y
      */
     public static Mat4 yrotationMatrix(double r) {
-        double cr = Math.cos(r);
-        double sr = Math.sin(r);
         Mat4 m = new Mat4();
-        m.d[0][0] = cr;
-        m.d[0][2] = sr;
-        m.d[2][0] = -sr;
-        m.d[2][2] = cr;
-        return m;        
+        m.setRotationXYZ(0, r, 0);
+        return m;
     }
-    
+
     /**
      * Create rotation matrix around z
      */
     public static Mat4 zrotationMatrix(double r) {
-        double cr = Math.cos(r);
-        double sr = Math.sin(r);
         Mat4 m = new Mat4();
-        m.d[0][0] = cr;
-        m.d[0][1] = -sr;
-        m.d[1][0] = sr;
-        m.d[1][1] = cr;
-        return m;        
+        m.setRotationXYZ(0, 0, r);
+        return m;
     }
-    
+
     /**
      * Create scaling matrix
      */
     public static Mat4 scalingMatrix(Vec3 s) {
         Mat4 m = new Mat4();
-        m.d[0][0] = s.x;
-        m.d[1][1] = s.y;
-        m.d[2][2] = s.z;
-        return m;        
+        m.d[ 0] = s.x;
+        m.d[ 5] = s.y;
+        m.d[10] = s.z;
+        return m;
     }
-    
+
     /**
      * creates a copy of the current trasnform and return it
      */
     public Mat4 copy() {
         Mat4 m = new Mat4();
-        for(int i = 0; i < 4; i ++) {
-            for(int j = 0; j < 4; j ++) {
-                m.d[i][j] = d[i][j];
-            }
-        }
-        return m;        
+        m.set(this);
+        return m;
     }
-}
\ No newline at end of file
+}
@@ -17,6 +17,18 @@ public class Mesh extends Surface {
      */
     public Vec3[] vertexNormal;
 
+    /**
+     * Packed vertex positions, stored as x,y,z for each vertex.
+     * Used in place of vertexPos when the mesh is packed, null otherwise.
+     */
+    public double[] packedPos;
+
+    /**
+     * Packed vertex normals, stored as x,y,z for each vertex.
+     * Used in place of vertexNormal when the mesh is packed, null otherwise.
+     */
+    public double[] packedNormal;
+
     /**
      * Faces indices pointing to the vertex ones
      */
@@ -27,6 +39,24 @@ public class Mesh extends Surface {
      */
     public boolean quads;
 
+    /**
+     * Share edge midpoints and face centers between neighboring faces when
+     * tesselating, instead of creating new vertices for every face.
+     */
+    public boolean shareEdgeVertices;
+
+    /**
+     * Incremented when the vertices are changed in place, so that copies
+     * of them, such as GL buffers, can tell when to update.
+     */
+    protected int vertexVersion;
+
+    /**
+     * Minimum number of faces or vertices processed by each parallel task
+     * during tesselation
+     */
+    static final int PARALLEL_GRAIN = 1024;
+
     /**
      * Create an empty mesh
      */
@@ -40,16 +70,41 @@ public class Mesh extends Surface {
         allocate(nV, nF, quads);
     }
 
+    /**
+     * Create a mesh of nV vertices and nF faces, either quads or triangles,
+     * optionally using the packed vertex representation
+     */
+    public Mesh(int nV, int nF, boolean quads, boolean packed) {
+        allocate(nV, nF, quads, packed);
+    }
+
     /**
      * Create a mesh of nV vertices and nF faces, either quads or triangles
      */
     protected void allocate(int nV, int nF, boolean quads) {
+        allocate(nV, nF, quads, false);
+    }
+
+    /**
+     * Create a mesh of nV vertices and nF faces, either quads or triangles,
+     * optionally using the packed vertex representation
+     */
+    protected void allocate(int nV, int nF, boolean quads, boolean packed) {
         this.quads = quads;
-        vertexPos = new Vec3[nV];
-        vertexNormal = new Vec3[nV];
-        for (int i = 0; i < nV; i++) {
-            vertexPos[i] = new Vec3();
-            vertexNormal[i] = new Vec3();
+        if (packed) {
+            vertexPos = null;
+            vertexNormal = null;
+            packedPos = new double[nV * 3];
+            packedNormal = new double[nV * 3];
+        } else {
+            packedPos = null;
+            packedNormal = null;
+            vertexPos = new Vec3[nV];
+            vertexNormal = new Vec3[nV];
+            for (int i = 0; i < nV; i++) {
+                vertexPos[i] = new Vec3();
+                vertexNormal[i] = new Vec3();
+            }
         }
         faceIds = new int[nF * verticesPerFace()];
     }
@@ -57,10 +112,22 @@ public class Mesh extends Surface {
     /**
      * Make a copy. Not robust! Assumes the mesh is contructed through the above
      * contructor and only copies vertex list in the faces.
+     * The copy uses the same representation as this mesh.
      */
     public Mesh copy() {
         if (faceIds.length == 0) {
-            return new Mesh(3, 0, false);
+            return new Mesh(3, 0, false, isPacked());
+        }
+
+        if (isPacked()) {
+            Mesh m = new Mesh();
+            m.quads = quads;
+            m.packedPos = packedPos.clone();
+            if (packedNormal != null) {
+                m.packedNormal = packedNormal.clone();
+            }
+            m.faceIds = faceIds.clone();
+            return m;
         }
 
         Mesh m = new Mesh(getNumVertices(), faceIds.length, quads);
@@ -69,10 +136,133 @@ public class Mesh extends Surface {
             m.vertexPos[v] = new Vec3(vertexPos[v]);
             m.vertexNormal[v] = new Vec3(vertexNormal[v]);
         }
-        m.faceIds = (int[]) faceIds.clone();
+        m.faceIds = faceIds.clone();
         return m;
     }
 
+    /**
+     * Returns whether the mesh uses the packed vertex representation.
+     */
+    public boolean isPacked() {
+        return packedPos != null;
+    }
+
+    /**
+     * Convert the mesh to the packed representation. The Vec3 arrays are
+     * released, so vertices should be accessed through the packed arrays or
+     * the accessors below afterwards.
+     */
+    public void pack() {
+        if (isPacked()) {
+            return;
+        }
+        packedPos = new double[vertexPos.length * 3];
+        for (int v = 0; v < vertexPos.length; v++) {
+            packedPos[v * 3 + 0] = vertexPos[v].x;
+            packedPos[v * 3 + 1] = vertexPos[v].y;
+            packedPos[v * 3 + 2] = vertexPos[v].z;
+        }
+        if (vertexNormal != null) {
+            packedNormal = new double[vertexNormal.length * 3];
+            for (int v = 0; v < vertexNormal.length; v++) {
+                packedNormal[v * 3 + 0] = vertexNormal[v].x;
+                packedNormal[v * 3 + 1] = vertexNormal[v].y;
+                packedNormal[v * 3 + 2] = vertexNormal[v].z;
+            }
+        }
+        vertexPos = null;
+        vertexNormal = null;
+    }
+
+    /**
+     * Returns the version of the vertices.
+     */
+    public int getVertexVersion() {
+        return vertexVersion;
+    }
+
+    /**
+     * Must be called after changing positions or normals in place.
+     */
+    public void verticesChanged() {
+        vertexVersion++;
+    }
+
+    /**
+     * Returns whether the mesh has vertex normals.
+     */
+    public boolean hasVertexNormals() {
+        return (isPacked()) ? packedNormal != null : vertexNormal != null;
+    }
+
+    /**
+     * Copy the position of vertex v in dest and return it.
+     * Works for both packed and unpacked meshes.
+     */
+    public Vec3 getVertexPos(int v, Vec3 dest) {
+        if (isPacked()) {
+            dest.set(packedPos[v * 3 + 0], packedPos[v * 3 + 1],
+                    packedPos[v * 3 + 2]);
+        } else {
+            dest.set(vertexPos[v]);
+        }
+        return dest;
+    }
+
+    /**
+     * Returns a new vector with the position of vertex v.
+     */
+    public Vec3 getVertexPos(int v) {
+        return getVertexPos(v, new Vec3());
+    }
+
+    /**
+     * Copy the normal of vertex v in dest and return it.
+     * Works for both packed and unpacked meshes.
+     */
+    public Vec3 getVertexNormal(int v, Vec3 dest) {
+        if (isPacked()) {
+            dest.set(packedNormal[v * 3 + 0], packedNormal[v * 3 + 1],
+                    packedNormal[v * 3 + 2]);
+        } else {
+            dest.set(vertexNormal[v]);
+        }
+        return dest;
+    }
+
+    /**
+     * Returns a new vector with the normal of vertex v.
+     */
+    public Vec3 getVertexNormal(int v) {
+        return getVertexNormal(v, new Vec3());
+    }
+
+    /**
+     * Set the position of vertex v.
+     */
+    public void setVertexPos(int v, double x, double y, double z) {
+        if (isPacked()) {
+            packedPos[v * 3 + 0] = x;
+            packedPos[v * 3 + 1] = y;
+            packedPos[v * 3 + 2] = z;
+        } else {
+            vertexPos[v].set(x, y, z);
+        }
+    }
+
+    /**
+     * Set the normal of vertex v.
+     */
+    public void setVertexNormal(int v, double x, double y, double z) {
+        if (isPacked()) {
+            packedNormal[v * 3 + 0] = x;
+            packedNormal[v * 3 + 1] = y;
+            packedNormal[v * 3 + 2] = z;
+        } else {
+            vertexNormal[v].set(x, y, z);
+        }
+    }
+
     /**
      * Set the given face with the proper vertex indices. The face is a number
      * from 0 to number of faces - 1. This function allows to forget about the
@@ -133,146 +323,290 @@ public class Mesh extends Surface {
      * Returns the number of vertices
      */
     public int getNumVertices() {
+        if (isPacked()) {
+            return packedPos.length / 3;
+        }
         return vertexPos.length;
     }
 
     /**
-     * Tesselate.
+     * Tesselate. The tesselated mesh is always packed.
+     * Faces are subdivided in parallel, see Parallel.
      */
     public void tesselate() {
-        tesselatedMesh = this;
-        
-        if (quads) {
-            // Quads tesslation
-    
-            // subdivide until needed
-            // for each level
-            for (int l = 1; l <= tesselationLevel; l++) {
-                // create new mesh and store away old one
-                Mesh currentTesselatedMesh = tesselatedMesh;
-                tesselatedMesh = new Mesh(
-                        currentTesselatedMesh.getNumFaces() * 9,
-                        currentTesselatedMesh.getNumFaces() * 4, true);
-                // for each face ...
-                for (int f = 0; f < currentTesselatedMesh.getNumFaces(); f++) {
-                    // create new vertices
-                    Vec3 v0 = currentTesselatedMesh.vertexPos[currentTesselatedMesh
-                            .getFaceVertexIndex(f, 0)];
-                    Vec3 v2 = currentTesselatedMesh.vertexPos[currentTesselatedMesh
-                            .getFaceVertexIndex(f, 1)];
-                    Vec3 v4 = currentTesselatedMesh.vertexPos[currentTesselatedMesh
-                            .getFaceVertexIndex(f, 2)];
-                    Vec3 v6 = currentTesselatedMesh.vertexPos[currentTesselatedMesh
-                            .getFaceVertexIndex(f, 3)];
-                    Vec3 v1 = v0.add(v2).scale(0.5);
-                    Vec3 v3 = v2.add(v4).scale(0.5);
-                    Vec3 v5 = v4.add(v6).scale(0.5);
-                    Vec3 v7 = v6.add(v0).scale(0.5);
-                    Vec3 v8 = v1.add(v5).scale(0.5);
-                    // add vertices to the current list
-                    tesselatedMesh.vertexPos[f * 9 + 0] = v0;
-                    tesselatedMesh.vertexPos[f * 9 + 1] = v1;
-                    tesselatedMesh.vertexPos[f * 9 + 2] = v2;
-                    tesselatedMesh.vertexPos[f * 9 + 3] = v3;
-                    tesselatedMesh.vertexPos[f * 9 + 4] = v4;
-                    tesselatedMesh.vertexPos[f * 9 + 5] = v5;
-                    tesselatedMesh.vertexPos[f * 9 + 6] = v6;
-                    tesselatedMesh.vertexPos[f * 9 + 7] = v7;
-                    tesselatedMesh.vertexPos[f * 9 + 8] = v8;
-                    // compute normal for each vertex
-                    Vec3 normal_vec0 = currentTesselatedMesh.vertexNormal[currentTesselatedMesh.getFaceVertexIndex(f, 0)].normalize();
-                    Vec3 normal_vec2 = currentTesselatedMesh.vertexNormal[currentTesselatedMesh.getFaceVertexIndex(f, 1)].normalize();
-                    Vec3 normal_vec4 = currentTesselatedMesh.vertexNormal[currentTesselatedMesh.getFaceVertexIndex(f, 2)].normalize();
-                    Vec3 normal_vec6 = currentTesselatedMesh.vertexNormal[currentTesselatedMesh.getFaceVertexIndex(f, 3)].normalize();
-                    Vec3 normal_vec1 = normal_vec0.add(normal_vec2).normalize();
-                    Vec3 normal_vec3 = normal_vec2.add(normal_vec4).normalize();
-                    Vec3 normal_vec5 = normal_vec4.add(normal_vec6).normalize();
-                    Vec3 normal_vec7 = normal_vec6.add(normal_vec0).normalize();
-                    Vec3 normal_vec8 = normal_vec7.add(normal_vec3).normalize();
-                    // add normal of vertices to the current list                   
-                    tesselatedMesh.vertexNormal[f * 9 + 0] = normal_vec0;
-                    tesselatedMesh.vertexNormal[f * 9 + 1] = normal_vec1;
-                    tesselatedMesh.vertexNormal[f * 9 + 2] = normal_vec2;
-                    tesselatedMesh.vertexNormal[f * 9 + 3] = normal_vec3;
-                    tesselatedMesh.vertexNormal[f * 9 + 4] = normal_vec4;
-                    tesselatedMesh.vertexNormal[f * 9 + 5] = normal_vec5;
-                    tesselatedMesh.vertexNormal[f * 9 + 6] = normal_vec6;
-                    tesselatedMesh.vertexNormal[f * 9 + 7] = normal_vec7;
-                    tesselatedMesh.vertexNormal[f * 9 + 8] = normal_vec8;
-        
-                    // compute new faces
-                    tesselatedMesh.setQuadFace(f * 4 + 0, f * 9 + 0,
-                            f * 9 + 1, f * 9 + 8, f * 9 + 7);
-                    tesselatedMesh.setQuadFace(f * 4 + 1, f * 9 + 1,
-                            f * 9 + 2, f * 9 + 3, f * 9 + 8);
-                    tesselatedMesh.setQuadFace(f * 4 + 2, f * 9 + 3,
-                            f * 9 + 4, f * 9 + 5, f * 9 + 8);
-                    tesselatedMesh.setQuadFace(f * 4 + 3, f * 9 + 5,
-                            f * 9 + 6, f * 9 + 7, f * 9 + 8);
+        if (isPacked()) {
+            tesselatedMesh = this;
+        } else {
+            tesselatedMesh = copy();
+            tesselatedMesh.pack();
+        }
+
+        // subdivide until needed
+        // for each level
+        for (int l = 1; l <= tesselationLevel; l++) {
+            if (shareEdgeVertices) {
+                tesselatedMesh = subdivideShared(tesselatedMesh);
+                continue;
+            }
+            // create new mesh and store away old one
+            final Mesh src = tesselatedMesh;
+            final Mesh dst;
+            if (quads) {
+                dst = new Mesh(src.getNumFaces() * 9, src.getNumFaces() * 4,
+                        true, true);
+            } else {
+                dst = new Mesh(src.getNumFaces() * 6, src.getNumFaces() * 4,
+                        false, true);
+            }
+            // for each face ... faces write disjoint vertex and face ranges
+            // so they can be subdivided in parallel
+            Parallel.forRange(src.getNumFaces(), PARALLEL_GRAIN, (begin, end) -> {
+                for (int f = begin; f < end; f++) {
+                    if (src.quads) {
+                        subdivideQuad(src, dst, f);
+                    } else {
+                        subdivideTriangle(src, dst, f);
+                    }
                 }
+            });
+            tesselatedMesh = dst;
+        }
+    }
+
+    /**
+     * Quads tesselation of face f of src into dst. Writes the vertices
+     * f*9..f*9+8 and the faces f*4..f*4+3 of dst.
+     */
+    private static void subdivideQuad(Mesh src, Mesh dst, int f) {
+        double[] sp = src.packedPos;
+        double[] sn = src.packedNormal;
+        double[] dp = dst.packedPos;
+        double[] dn = dst.packedNormal;
+        int i0 = src.getFaceVertexIndex(f, 0) * 3;
+        int i2 = src.getFaceVertexIndex(f, 1) * 3;
+        int i4 = src.getFaceVertexIndex(f, 2) * 3;
+        int i6 = src.getFaceVertexIndex(f, 3) * 3;
+        int o = f * 9 * 3;
+
+        // create new vertices and add them to the current list
+        copy3(sp, i0, dp, o + 0 * 3);
+        copy3(sp, i2, dp, o + 2 * 3);
+        copy3(sp, i4, dp, o + 4 * 3);
+        copy3(sp, i6, dp, o + 6 * 3);
+        midpoint3(dp, o + 0 * 3, dp, o + 2 * 3, dp, o + 1 * 3);
+        midpoint3(dp, o + 2 * 3, dp, o + 4 * 3, dp, o + 3 * 3);
+        midpoint3(dp, o + 4 * 3, dp, o + 6 * 3, dp, o + 5 * 3);
+        midpoint3(dp, o + 6 * 3, dp, o + 0 * 3, dp, o + 7 * 3);
+        midpoint3(dp, o + 1 * 3, dp, o + 5 * 3, dp, o + 8 * 3);
+
+        // compute normal for each vertex and add it to the current list
+        normalize3(sn, i0, dn, o + 0 * 3);
+        normalize3(sn, i2, dn, o + 2 * 3);
+        normalize3(sn, i4, dn, o + 4 * 3);
+        normalize3(sn, i6, dn, o + 6 * 3);
+        normalizedSum3(dn, o + 0 * 3, dn, o + 2 * 3, dn, o + 1 * 3);
+        normalizedSum3(dn, o + 2 * 3, dn, o + 4 * 3, dn, o + 3 * 3);
+        normalizedSum3(dn, o + 4 * 3, dn, o + 6 * 3, dn, o + 5 * 3);
+        normalizedSum3(dn, o + 6 * 3, dn, o + 0 * 3, dn, o + 7 * 3);
+        normalizedSum3(dn, o + 7 * 3, dn, o + 3 * 3, dn, o + 8 * 3);
+
+        // compute new faces
+        dst.setQuadFace(f * 4 + 0, f * 9 + 0, f * 9 + 1, f * 9 + 8, f * 9 + 7);
+        dst.setQuadFace(f * 4 + 1, f * 9 + 1, f * 9 + 2, f * 9 + 3, f * 9 + 8);
+        dst.setQuadFace(f * 4 + 2, f * 9 + 3, f * 9 + 4, f * 9 + 5, f * 9 + 8);
+        dst.setQuadFace(f * 4 + 3, f * 9 + 5, f * 9 + 6, f * 9 + 7, f * 9 + 8);
+    }
+
+    /**
+     * Triangle tesselation of face f of src into dst. Writes the vertices
+     * f*6..f*6+5 and the faces f*4..f*4+3 of dst.
+     */
+    private static void subdivideTriangle(Mesh src, Mesh dst, int f) {
+        double[] sp = src.packedPos;
+        double[] sn = src.packedNormal;
+        double[] dp = dst.packedPos;
+        double[] dn = dst.packedNormal;
+        int i0 = src.getFaceVertexIndex(f, 0) * 3;
+        int i2 = src.getFaceVertexIndex(f, 1) * 3;
+        int i4 = src.getFaceVertexIndex(f, 2) * 3;
+        int o = f * 6 * 3;
+
+        // create new vertices and add them to the current list
+        copy3(sp, i0, dp, o + 0 * 3);
+        copy3(sp, i2, dp, o + 2 * 3);
+        copy3(sp, i4, dp, o + 4 * 3);
+        midpoint3(dp, o + 0 * 3, dp, o + 2 * 3, dp, o + 1 * 3);
+        midpoint3(dp, o + 2 * 3, dp, o + 4 * 3, dp, o + 3 * 3);
+        midpoint3(dp, o + 4 * 3, dp, o + 0 * 3, dp, o + 5 * 3);
+
+        // compute normal for each vertex and add it to the current list
+        copy3(sn, i0, dn, o + 0 * 3);
+        copy3(sn, i2, dn, o + 2 * 3);
+        copy3(sn, i4, dn, o + 4 * 3);
+        midpoint3(dn, o + 0 * 3, dn, o + 2 * 3, dn, o + 1 * 3);
+        midpoint3(dn, o + 2 * 3, dn, o + 4 * 3, dn, o + 3 * 3);
+        midpoint3(dn, o + 4 * 3, dn, o + 0 * 3, dn, o + 5 * 3);
+
+        // compute new faces
+        dst.setTriangleFace(f * 4 + 0, f * 6 + 0, f * 6 + 1, f * 6 + 5);
+        dst.setTriangleFace(f * 4 + 1, f * 6 + 1, f * 6 + 2, f * 6 + 3);
+        dst.setTriangleFace(f * 4 + 2, f * 6 + 3, f * 6 + 4, f * 6 + 5);
+        dst.setTriangleFace(f * 4 + 3, f * 6 + 1, f * 6 + 3, f * 6 + 5);
+    }
+
+    /**
+     * One level of tesselation that creates each edge midpoint and quad
+     * center only once. The new mesh keeps the vertices of src first,
+     * followed by one vertex per edge (numbered in face order) and, for
+     * quads, one vertex per face. Positions and normals are computed as
+     * in subdivideQuad and subdivideTriangle.
+     */
+    private static Mesh subdivideShared(Mesh src) {
+        int nV = src.getNumVertices();
+        int nF = src.getNumFaces();
+        int vpf = src.verticesPerFace();
+
+        // number the edges
+        MeshEdgeMap edges = new MeshEdgeMap(nF * vpf);
+        int[] faceEdges = new int[nF * vpf];
+        for (int f = 0; f < nF; f++) {
+            for (int k = 0; k < vpf; k++) {
+                faceEdges[f * vpf + k] = edges.add(
+                        src.getFaceVertexIndex(f, k),
+                        src.getFaceVertexIndex(f, (k + 1) % vpf));
             }
-        } else {
-            // Triangle tesselation
-            
-            // subdivide until needed
-            // for each level
-            for (int l = 1; l <= tesselationLevel; l++) {
-                // create new mesh and store away old one
-                Mesh currentTesselatedMesh = tesselatedMesh;
-                tesselatedMesh = new Mesh(
-                        currentTesselatedMesh.getNumFaces() * 6,
-                        currentTesselatedMesh.getNumFaces() * 4, false);
-                // for each face ...
-                for (int f = 0; f < currentTesselatedMesh.getNumFaces(); f++) {
-                    // create new vertices
-                    Vec3 v0 = currentTesselatedMesh.vertexPos[currentTesselatedMesh
-                            .getFaceVertexIndex(f, 0)];
-                    Vec3 v2 = currentTesselatedMesh.vertexPos[currentTesselatedMesh
-                            .getFaceVertexIndex(f, 1)];
-                    Vec3 v4 = currentTesselatedMesh.vertexPos[currentTesselatedMesh
-                            .getFaceVertexIndex(f, 2)];
-                    Vec3 v1 = v0.add(v2).scale(0.5);
-                    Vec3 v3 = v2.add(v4).scale(0.5);
-                    Vec3 v5 = v4.add(v0).scale(0.5);
-                    // add vertices to the current list
-                    tesselatedMesh.vertexPos[f * 6 + 0] = v0;
-                    tesselatedMesh.vertexPos[f * 6 + 1] = v1;
-                    tesselatedMesh.vertexPos[f * 6 + 2] = v2;
-                    tesselatedMesh.vertexPos[f * 6 + 3] = v3;
-                    tesselatedMesh.vertexPos[f * 6 + 4] = v4;
-                    tesselatedMesh.vertexPos[f * 6 + 5] = v5;
-                    //compute normal for each vertex
-                    Vec3 normal_vec0 = currentTesselatedMesh.vertexNormal[currentTesselatedMesh.getFaceVertexIndex(f, 0)];
-                    Vec3 normal_vec2 = currentTesselatedMesh.vertexNormal[currentTesselatedMesh.getFaceVertexIndex(f, 1)];
-                    Vec3 normal_vec4 = currentTesselatedMesh.vertexNormal[currentTesselatedMesh.getFaceVertexIndex(f, 2)];
-                    Vec3 normal_vec1 = normal_vec0.add(normal_vec2).scale(0.5);
-                    Vec3 normal_vec3 = normal_vec2.add(normal_vec4).scale(0.5);
-                    Vec3 normal_vec5 = normal_vec4.add(normal_vec0).scale(0.5);
-                    // add normal of vertices to the current list                   
-                    tesselatedMesh.vertexNormal[f * 6 + 0] = normal_vec0;
-                    tesselatedMesh.vertexNormal[f * 6 + 1] = normal_vec1;
-                    tesselatedMesh.vertexNormal[f * 6 + 2] = normal_vec2;
-                    tesselatedMesh.vertexNormal[f * 6 + 3] = normal_vec3;
-                    tesselatedMesh.vertexNormal[f * 6 + 4] = normal_vec4;
-                    tesselatedMesh.vertexNormal[f * 6 + 5] = normal_vec5;
-                    
-                    //compute new faces
-                    tesselatedMesh.setTriangleFace(f * 4 + 0, f * 6 + 0,
-                            f * 6 + 1, f * 6 + 5);
-                    tesselatedMesh.setTriangleFace(f * 4 + 1, f * 6 + 1,
-                            f * 6 + 2, f * 6 + 3);
-                    tesselatedMesh.setTriangleFace(f * 4 + 2, f * 6 + 3,
-                            f * 6 + 4, f * 6 + 5);
-                    tesselatedMesh.setTriangleFace(f * 4 + 3, f * 6 + 1,
-                            f * 6 + 3, f * 6 + 5);
+        }
+        int nE = edges.size();
+        int eOffset = nV;
+        int fOffset = nV + nE;
+
+        Mesh dst = new Mesh(fOffset + ((src.quads) ? nF : 0), nF * 4,
+                src.quads, true);
+        double[] sp = src.packedPos;
+        double[] sn = src.packedNormal;
+        double[] dp = dst.packedPos;
+        double[] dn = dst.packedNormal;
+
+        // copy old vertices
+        Parallel.forRange(nV, PARALLEL_GRAIN, (begin, end) -> {
+            for (int v = begin; v < end; v++) {
+                copy3(sp, v * 3, dp, v * 3);
+                if (src.quads) {
+                    normalize3(sn, v * 3, dn, v * 3);
+                } else {
+                    copy3(sn, v * 3, dn, v * 3);
                 }
+            }
+        });
 
+        // create edge midpoints
+        Parallel.forRange(nE, PARALLEL_GRAIN, (begin, end) -> {
+            for (int e = begin; e < end; e++) {
+                int a = edges.getVertex0(e) * 3;
+                int b = edges.getVertex1(e) * 3;
+                int o = (eOffset + e) * 3;
+                midpoint3(dp, a, dp, b, dp, o);
+                if (src.quads) {
+                    normalizedSum3(dn, a, dn, b, dn, o);
+                } else {
+                    midpoint3(dn, a, dn, b, dn, o);
+                }
             }
+        });
 
+        // create face centers and new faces
+        Parallel.forRange(nF, PARALLEL_GRAIN, (begin, end) -> {
+            for (int f = begin; f < end; f++) {
+                subdivideSharedFace(src, dst, faceEdges, eOffset, fOffset, f);
+            }
+        });
+
+        return dst;
+    }
+
+    /**
+     * Create the center and the new faces of face f for subdivideShared.
+     */
+    private static void subdivideSharedFace(Mesh src, Mesh dst,
+            int[] faceEdges, int eOffset, int fOffset, int f) {
+        int vpf = src.verticesPerFace();
+        double[] dp = dst.packedPos;
+        double[] dn = dst.packedNormal;
+        int c0 = src.getFaceVertexIndex(f, 0);
+        int c1 = src.getFaceVertexIndex(f, 1);
+        int c2 = src.getFaceVertexIndex(f, 2);
+        int e0 = eOffset + faceEdges[f * vpf + 0];
+        int e1 = eOffset + faceEdges[f * vpf + 1];
+        int e2 = eOffset + faceEdges[f * vpf + 2];
+        if (src.quads) {
+            int c3 = src.getFaceVertexIndex(f, 3);
+            int e3 = eOffset + faceEdges[f * vpf + 3];
+            int m = fOffset + f;
+            midpoint3(dp, e0 * 3, dp, e2 * 3, dp, m * 3);
+            normalizedSum3(dn, e3 * 3, dn, e1 * 3, dn, m * 3);
+            dst.setQuadFace(f * 4 + 0, c0, e0, m, e3);
+            dst.setQuadFace(f * 4 + 1, e0, c1, e1, m);
+            dst.setQuadFace(f * 4 + 2, e1, c2, e2, m);
+            dst.setQuadFace(f * 4 + 3, e2, c3, e3, m);
+        } else {
+            dst.setTriangleFace(f * 4 + 0, c0, e0, e2);
+            dst.setTriangleFace(f * 4 + 1, e0, c1, e1);
+            dst.setTriangleFace(f * 4 + 2, e1, c2, e2);
+            dst.setTriangleFace(f * 4 + 3, e0, e1, e2);
         }
-        
     }
-    
+
+    /**
+     * Packed copy: d[di..di+2] = s[si..si+2]
+     */
+    private static void copy3(double[] s, int si, double[] d, int di) {
+        d[di + 0] = s[si + 0];
+        d[di + 1] = s[si + 1];
+        d[di + 2] = s[si + 2];
+    }
+
+    /**
+     * Packed midpoint: d = (a + b) * 0.5
+     */
+    private static void midpoint3(double[] a, int ai, double[] b, int bi,
+            double[] d, int di) {
+        d[di + 0] = (a[ai + 0] + b[bi + 0]) * 0.5;
+        d[di + 1] = (a[ai + 1] + b[bi + 1]) * 0.5;
+        d[di + 2] = (a[ai + 2] + b[bi + 2]) * 0.5;
+    }
+
+    /**
+     * Packed normalization: d = s / |s|, or zero if s is zero.
+     * Same arithmetic as Vec3.normalize().
+     */
+    private static void normalize3(double[] s, int si, double[] d, int di) {
+        double x = s[si + 0];
+        double y = s[si + 1];
+        double z = s[si + 2];
+        double l = Math.sqrt(x * x + y * y + z * z);
+        if (l > 0) {
+            double il = 1 / l;
+            d[di + 0] = x * il;
+            d[di + 1] = y * il;
+            d[di + 2] = z * il;
+        } else {
+            d[di + 0] = 0;
+            d[di + 1] = 0;
+            d[di + 2] = 0;
+        }
+    }
+
+    /**
+     * Packed normalized sum: d = normalize(a + b)
+     */
+    private static void normalizedSum3(double[] a, int ai, double[] b, int bi,
+            double[] d, int di) {
+        d[di + 0] = a[ai + 0] + b[bi + 0];
+        d[di + 1] = a[ai + 1] + b[bi + 1];
+        d[di + 2] = a[ai + 2] + b[bi + 2];
+        normalize3(d, di, d, di);
+    }
+
     public void initFromParser() {
         if(vertexNormal != null) {
             for(int i = 0; i < vertexNormal.length; i ++) {
@@ -281,3 +615,83 @@ public class Mesh extends Surface {
         }
     }
 }
+
+/**
+ * Maps mesh edges, keyed by their (min,max) vertex index pair, to edge
+ * indices assigned in insertion order. Uses open addressing over flat arrays
+ * to avoid allocating an object per edge.
+ */
+class MeshEdgeMap {
+    /** Packed (min,max) keys, -1 for empty slots */
+    private long[] keys;
+    /** Edge index for each slot */
+    private int[] values;
+    /** Smaller vertex index of each edge */
+    private int[] vertex0;
+    /** Larger vertex index of each edge */
+    private int[] vertex1;
+    /** Number of edges */
+    private int size;
+    /** Shift keeping the top log2(capacity) bits of the key hash */
+    private int shift;
+
+    /**
+     * Create a map able to hold up to maxEdges edges.
+     */
+    public MeshEdgeMap(int maxEdges) {
+        int capacity = 16;
+        while (capacity < maxEdges * 2) {
+            capacity *= 2;
+        }
+        keys = new long[capacity];
+        java.util.Arrays.fill(keys, -1);
+        shift = 64 - Integer.numberOfTrailingZeros(capacity);
+        values = new int[capacity];
+        vertex0 = new int[maxEdges];
+        vertex1 = new int[maxEdges];
+    }
+
+    /**
+     * Returns the index of the edge between a and b, adding it if needed.
+     */
+    public int add(int a, int b) {
+        int v0 = Math.min(a, b);
+        int v1 = Math.max(a, b);
+        long key = ((long) v0 << 32) | v1;
+        int mask = keys.length - 1;
+        // multiplicative hash, its top bits index the whole table
+        int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+        while (keys[slot] != -1) {
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = size;
+        vertex0[size] = v0;
+        vertex1[size] = v1;
+        return size++;
+    }
+
+    /**
+     * Returns the number of edges.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the smaller vertex index of edge e.
+     */
+    public int getVertex0(int e) {
+        return vertex0[e];
+    }
+
+    /**
+     * Returns the larger vertex index of edge e.
+     */
+    public int getVertex1(int e) {
+        return vertex1[e];
+    }
+}
@@ -0,0 +1,157 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Shared fork/join pool used by the parallel code paths.
+ *
+ * The number of threads defaults to the number of processors and can be set
+ * with the "threads" system property or with setNumThreads. With a single
+ * thread all the work runs sequentially on the calling thread.
+ *
+ * Parallel loops are split in chunks that write disjoint data, so their
+ * results do not depend on the number of threads.
+ *
+ * Loops count themselves as users of the pool they run in, so that
+ * setNumThreads can replace the pool at any time: the old pool is only
+ * shut down once the loops running in it are done.
+ */
+public class Parallel {
+    /**
+     * Body of a parallel loop, called on the index range [begin,end).
+     */
+    public interface RangeBody {
+        void run(int begin, int end);
+    }
+
+    /**
+     * Number of threads
+     */
+    private static volatile int numThreads = Math.max(1, Integer.getInteger("threads",
+            Runtime.getRuntime().availableProcessors()).intValue());
+
+    /**
+     * Pool, created on first use
+     */
+    private static Pool pool;
+
+    /**
+     * A fork/join pool and the number of loops using it.
+     */
+    private static class Pool {
+        final ForkJoinPool executor;
+        int users;
+        boolean retired;
+
+        Pool(int threads) {
+            executor = new ForkJoinPool(threads);
+        }
+    }
+
+    /**
+     * Set the number of threads. 1 disables parallel execution.
+     * Loops already running finish in the pool they started in.
+     */
+    public static synchronized void setNumThreads(int n) {
+        numThreads = Math.max(1, n);
+        if (pool != null) {
+            pool.retired = true;
+            if (pool.users == 0) {
+                pool.executor.shutdown();
+            }
+            pool = null;
+        }
+    }
+
+    /**
+     * Returns the number of threads.
+     */
+    public static int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * Returns whether the parallel paths are enabled.
+     */
+    public static boolean isEnabled() {
+        return numThreads > 1;
+    }
+
+    /**
+     * Returns the pool, creating it if needed, and count a user of it.
+     */
+    private static synchronized Pool acquirePool() {
+        if (pool == null) {
+            pool = new Pool(numThreads);
+        }
+        pool.users++;
+        return pool;
+    }
+
+    /**
+     * Release a pool returned by acquirePool, shutting it down if it was
+     * replaced and this was its last user.
+     */
+    private static synchronized void releasePool(Pool p) {
+        if (--p.users == 0 && p.retired) {
+            p.executor.shutdown();
+        }
+    }
+
+    /**
+     * Run body over [0,n), split in chunks of at least grain indices.
+     * Runs sequentially if parallel execution is disabled or n <= grain.
+     */
+    public static void forRange(int n, int grain, RangeBody body) {
+        if (!isEnabled() || n <= grain) {
+            body.run(0, n);
+            return;
+        }
+        run(new RangeTask(body, 0, n, Math.max(1, grain)));
+    }
+
+    /**
+     * Run the given task in the pool and wait for it. Tasks started from
+     * within the pool are run directly by the current worker.
+     */
+    private static void run(ForkJoinTask<?> task) {
+        Pool p = acquirePool();
+        try {
+            if (ForkJoinTask.getPool() == p.executor) {
+                task.invoke();
+            } else {
+                p.executor.invoke(task);
+            }
+        } finally {
+            releasePool(p);
+        }
+    }
+
+    /**
+     * Recursively splits a range in halves down to the grain size.
+     */
+    private static class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 2795305834911843042L;
+        private final RangeBody body;
+        private final int begin;
+        private final int end;
+        private final int grain;
+
+        RangeTask(RangeBody body, int begin, int end, int grain) {
+            this.body = body;
+            this.begin = begin;
+            this.end = end;
+            this.grain = grain;
+        }
+
+        protected void compute() {
+            if (end - begin <= grain) {
+                body.run(begin, end);
+            } else {
+                int mid = (begin + end) >>> 1;
+                invokeAll(new RangeTask(body, begin, mid, grain),
+                        new RangeTask(body, mid, end, grain));
+            }
+        }
+    }
+}
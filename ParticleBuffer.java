@@ -0,0 +1,78 @@
+import java.util.Arrays;
+
+/**
+ * The properties of all the particles of a system as parallel arrays,
+ * one entry per particle slot. Vectors and colors take three consecutive
+ * values, so particle i is at index i*3.
+ */
+public class ParticleBuffer {
+    /** Number of particles */
+    public final int count;
+    /** Particle positions */
+    public final double[] position;
+    /** Particle velocities */
+    public final double[] velocity;
+    /** Sum of the forces on each particle, accumulated by ParticleForce */
+    public final double[] force;
+    /** Particle colors */
+    public final float[] color;
+    /** Particle birthdays */
+    public final double[] creationTime;
+    /** Time at which each particle dies */
+    public final double[] deathTime;
+    /** Particle masses */
+    public final double[] mass;
+    /** Particle sizes */
+    public final double[] size;
+    /** State of the random number generator of each slot */
+    public final long[] randomState;
+    
+    /**
+     * Allocate count particles at the origin, white, with unit mass and size.
+     */
+    public ParticleBuffer(int count) {
+        this.count = count;
+        position = new double[count*3];
+        velocity = new double[count*3];
+        force = new double[count*3];
+        color = new float[count*3];
+        Arrays.fill(color, 1);
+        creationTime = new double[count];
+        deathTime = new double[count];
+        mass = new double[count];
+        Arrays.fill(mass, 1);
+        size = new double[count];
+        Arrays.fill(size, 1);
+        randomState = new long[count];
+    }
+
+    /** SplitMix64 increment, the same used by java.util.SplittableRandom */
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    /**
+     * Seed the generator of every slot. The seeds are scrambled so that
+     * the sequences of neighboring slots do not overlap.
+     */
+    public void seedRandom(long seed) {
+        for(int i = 0; i < count; i ++) {
+            randomState[i] = mix64(seed * GOLDEN_GAMMA + mix64(i + 1));
+        }
+    }
+
+    /**
+     * Next uniform value in [0,1) of the generator of slot idx.
+     * This is SplitMix64, the generator of java.util.SplittableRandom,
+     * with its state kept in a column so that slots draw independently.
+     */
+    public double nextDouble(int idx) {
+        long z = (randomState[idx] += GOLDEN_GAMMA);
+        return (mix64(z) >>> 11) * 0x1.0p-53;
+    }
+
+    /** SplitMix64 finalizer */
+    static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,173 @@
+/**
+ * Uniform spatial hash grid over the particles of a ParticleBuffer, used to
+ * find the neighbors of a particle without looking at all the others.
+ *
+ * Space is split in cubic cells of size cellSize. The cells are hashed by
+ * wrapping their coordinates on a periodic grid of 2^bits cells per axis,
+ * with at least twice as many buckets as particles, so the grid does not
+ * need bounds. Cells far apart can share a bucket, so searches must check
+ * the distance of what they find. The particles are counting sorted by
+ * bucket into one flat array: the particles of bucket h are sortedIds[k]
+ * for k from cellStart[h] to cellStart[h+1]-1, and their positions are
+ * copied in the same order in sortedPosition. Buckets are ordered along x
+ * first, so the three cells of a row around a particle are usually one
+ * range of the sorted arrays, and nearby particles are close in memory.
+ *
+ * The grid is rebuilt every step with build, which only allocates when
+ * the number of particles changes.
+ */
+public class ParticleGrid {
+    /**
+     * Cell size
+     */
+    protected double cellSize;
+
+    /**
+     * Inverse of the cell size
+     */
+    protected double invCellSize;
+
+    /**
+     * Number of bits of each cell coordinate in a bucket
+     */
+    protected int bits;
+
+    /**
+     * Cells per axis of the periodic grid minus one
+     */
+    protected int mask;
+
+    /**
+     * Start of the particles of each bucket in sortedIds, plus the end
+     */
+    public int[] cellStart;
+
+    /**
+     * Particle indices sorted by bucket
+     */
+    public int[] sortedIds;
+
+    /**
+     * Particle positions in the order of sortedIds, x,y,z for each
+     */
+    public double[] sortedPosition;
+
+    /**
+     * Index of each particle in sortedIds
+     */
+    public int[] sortedRank;
+
+    /**
+     * Bucket of each particle
+     */
+    protected int[] particleBucket;
+
+    /**
+     * Particles per task when hashing the particles in parallel
+     */
+    static final int PARALLEL_GRAIN = 16384;
+
+    /**
+     * Sort the particles in cells of size cellSize.
+     */
+    public void build(ParticleBuffer particles, double cellSize) {
+        int n = particles.count;
+        // at least 4 cells per axis, so the 27 cells around a particle
+        // are all in different buckets
+        bits = 2;
+        while((1L << (3 * bits)) < 2L * n) {
+            bits ++;
+        }
+        mask = (1 << bits) - 1;
+        int buckets = 1 << (3 * bits);
+        if(cellStart == null || cellStart.length != buckets + 1) {
+            cellStart = new int[buckets + 1];
+        }
+        if(sortedIds == null || sortedIds.length != n) {
+            sortedIds = new int[n];
+            sortedRank = new int[n];
+            sortedPosition = new double[n*3];
+            particleBucket = new int[n];
+        }
+        this.cellSize = cellSize;
+        invCellSize = 1 / cellSize;
+
+        // hash, then count sort by bucket
+        double[] pos = particles.position;
+        Parallel.forRange(n, PARALLEL_GRAIN, (begin, end) -> {
+            for(int i = begin; i < end; i ++) {
+                particleBucket[i] = bucket(cell(pos[i*3+0]), cell(pos[i*3+1]), cell(pos[i*3+2]));
+            }
+        });
+        java.util.Arrays.fill(cellStart, 0);
+        for(int i = 0; i < n; i ++) {
+            cellStart[particleBucket[i] + 1] ++;
+        }
+        for(int h = 0; h < buckets; h ++) {
+            cellStart[h + 1] += cellStart[h];
+        }
+        // the fill advances each start to the next one, then it is shifted back
+        for(int i = 0; i < n; i ++) {
+            int k = cellStart[particleBucket[i]] ++;
+            sortedIds[k] = i;
+            sortedRank[i] = k;
+            sortedPosition[k*3+0] = pos[i*3+0];
+            sortedPosition[k*3+1] = pos[i*3+1];
+            sortedPosition[k*3+2] = pos[i*3+2];
+        }
+        for(int h = buckets; h > 0; h --) {
+            cellStart[h] = cellStart[h - 1];
+        }
+        cellStart[0] = 0;
+    }
+
+    /**
+     * Returns the cell size of the last build.
+     */
+    public double getCellSize() {
+        return cellSize;
+    }
+
+    /**
+     * Cell coordinate of x along an axis.
+     */
+    public int cell(double x) {
+        return (int)Math.floor(x * invCellSize);
+    }
+
+    /**
+     * Bucket of the cell (cx,cy,cz).
+     */
+    public int bucket(int cx, int cy, int cz) {
+        return (((cz & mask) << bits | (cy & mask)) << bits) | (cx & mask);
+    }
+
+    /**
+     * Store in ranges the ranges of the sorted arrays that hold the 27
+     * cells around the point (x,y,z), as begin,end pairs, and return their
+     * number. With a cell size of at least a search radius, they hold all
+     * the particles within the radius. Each row of three cells is a single
+     * range unless it wraps around the periodic grid, so ranges must have
+     * room for 36 values.
+     */
+    public int findRanges(double x, double y, double z, int[] ranges) {
+        int cx = cell(x), cy = cell(y), cz = cell(z);
+        int x0 = (cx - 1) & mask, x1 = (cx + 1) & mask;
+        int n = 0;
+        for(int dz = -1; dz <= 1; dz ++) {
+            for(int dy = -1; dy <= 1; dy ++) {
+                int row = bucket(0, cy + dy, cz + dz);
+                if(x0 < x1) {
+                    ranges[n ++] = cellStart[row + x0];
+                    ranges[n ++] = cellStart[row + x1 + 1];
+                } else {
+                    ranges[n ++] = cellStart[row + x0];
+                    ranges[n ++] = cellStart[row + mask + 1];
+                    ranges[n ++] = cellStart[row];
+                    ranges[n ++] = cellStart[row + x1 + 1];
+                }
+            }
+        }
+        return n / 2;
+    }
+}
@@ -1,4 +1,4 @@
-import java.util.Random;
+import java.util.Arrays;
 
 /**
  * A simple class for handling particle systems.
@@ -30,9 +30,9 @@ public class ParticleSystem extends HierarchyNode {
     public Surface                  geometry;
     
     /**
-     * List of particles
+     * Particles, stored as parallel arrays
      */
-    public ParticleState[]          particles;
+    public ParticleBuffer           particles;
     
     /**
      * Source of the particle system
@@ -60,9 +60,52 @@ public class ParticleSystem extends HierarchyNode {
     private double                  lastTime;
     
     /**
-     * Random number generator for the particle systems.
+     * Seed of the random number generators of the particles.
      */
-    public final Random              random = new Random(0);
+    public int                      seed;
+
+    /**
+     * Integrator, one of the INTEGRATOR constants.
+     */
+    public int                      integrator;
+
+    /**
+     * Fixed internal time step. If positive, animate advances the system
+     * by as many steps of this size as fit in the elapsed time, and the
+     * rest is carried over to the next call. If zero, animate does a
+     * single step over the whole elapsed time.
+     */
+    public double                   timeStep;
+
+    /**
+     * Whether the force column holds the forces at the current positions,
+     * kept between steps by Velocity Verlet.
+     */
+    private boolean                 forcesValid;
+
+    /**
+     * Integrators names
+     */
+    public static final String[]    INTEGRATOR_TABLE = { "euler", "semiImplicitEuler", "velocityVerlet" };
+    /**
+     * Explicit Euler: position then velocity, both from the old state
+     */
+    public static final int         INTEGRATOR_EULER = 0;
+    /**
+     * Semi-implicit (symplectic) Euler: velocity first, then position
+     * with the new velocity
+     */
+    public static final int         INTEGRATOR_SEMI_IMPLICIT_EULER = 1;
+    /**
+     * Velocity Verlet: half kick, drift, forces at the new positions,
+     * half kick
+     */
+    public static final int         INTEGRATOR_VELOCITY_VERLET = 2;
+
+    /**
+     * Number of particles updated by each parallel task.
+     */
+    public static final int         PARALLEL_GRAIN = 4096;
 
     /**
      * Just tesselate the geometry and initialize the system by running
@@ -70,6 +113,11 @@ public class ParticleSystem extends HierarchyNode {
      */
     public void tesselate() {
         geometry.tesselate();
+        if(forces != null) {
+            for(int k = 0; k < forces.length; k ++) {
+                forces[k].tesselate();
+            }
+        }
         animate(0);
     }
 
@@ -78,23 +126,215 @@ public class ParticleSystem extends HierarchyNode {
      * Also updates the dynamics when necessary.
      * If the particles array is null, this function should
      * just create a bunch of new particles and not run their dynamics.
+     * Dead particles are replaced in their slot, so once the buffer
+     * exists the update does not allocate.
+     * 
+     * The particles are updated in parallel chunks. Every slot draws from
+     * its own random number generator, so the result does not depend on
+     * the number of threads. If all the forces are local, each chunk runs
+     * all the steps of the call in a row while it is in cache, otherwise
+     * every step is split in passes over all the particles.
      */
     public void animate(double time) {
-        throw new NotImplementedException();
+        if(particles == null || particles.count != numParticles || time < lastTime) {
+            if(particles == null || particles.count != numParticles) {
+                particles = new ParticleBuffer(numParticles);
+            }
+            particles.seedRandom(seed);
+            for(int i = 0; i < numParticles; i ++) {
+                createParticle(time, i);
+            }
+            lastTime = time;
+            forcesValid = false;
+            return;
+        }
+        int steps;
+        double dt;
+        if(timeStep > 0) {
+            // the tolerance keeps frames that are a multiple of the step
+            // from losing a step to rounding
+            steps = (int)((time - lastTime) / timeStep + 1e-6);
+            dt = timeStep;
+        } else {
+            steps = time > lastTime ? 1 : 0;
+            dt = time - lastTime;
+        }
+        if(steps == 0) {
+            return;
+        }
+        double start = lastTime;
+        lastTime = timeStep > 0 ? Math.min(time, start + steps * dt) : time;
+        boolean verlet = integrator == INTEGRATOR_VELOCITY_VERLET;
+        boolean valid = verlet && forcesValid;
+        if(hasLocalForces()) {
+            prepareForces();
+            Parallel.forRange(numParticles, PARALLEL_GRAIN, (begin, end) -> {
+                for(int k = 0; k < steps; k ++) {
+                    if(!verlet || (k == 0 && !valid)) {
+                        accumulateForces(begin, end);
+                    }
+                    updateParticleStates(dt, begin, end);
+                    if(verlet) {
+                        accumulateForces(begin, end);
+                    }
+                    finishParticleStates(start + (k + 1) * dt, dt, begin, end, true);
+                }
+            });
+            forcesValid = verlet;
+        } else {
+            for(int k = 0; k < steps; k ++) {
+                double t = start + (k + 1) * dt;
+                // respawned particles may have changed the forces on any
+                // other, so Verlet cannot keep the forces of the last step
+                prepareForces();
+                Parallel.forRange(numParticles, PARALLEL_GRAIN, this::accumulateForces);
+                Parallel.forRange(numParticles, PARALLEL_GRAIN, (begin, end) -> {
+                    updateParticleStates(dt, begin, end);
+                });
+                if(verlet) {
+                    prepareForces();
+                    Parallel.forRange(numParticles, PARALLEL_GRAIN, this::accumulateForces);
+                }
+                Parallel.forRange(numParticles, PARALLEL_GRAIN, (begin, end) -> {
+                    finishParticleStates(t, dt, begin, end, false);
+                });
+            }
+            forcesValid = false;
+        }
+    }
+    
+    /**
+     * Whether every force depends only on the particle it acts on.
+     */
+    protected boolean hasLocalForces() {
+        if(forces != null) {
+            for(int k = 0; k < forces.length; k ++) {
+                if(!forces[k].isLocal()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Create a new particle in slot idx, born at time time, and draw
+     * its age of death.
+     */
+    protected void createParticle(double time, int idx) {
+        source.createParticle(particles, idx, time);
+        particles.deathTime[idx] = time + ageMin + particles.nextDouble(idx) * (ageMax - ageMin);
     }
     
     /**
      * Check if the particle idx is dead based on its age.
+     * The age at which a particle dies is drawn between ageMin
+     * and ageMax when it is created.
      */
     public boolean isParticleDead(double time, int idx) {
-        throw new NotImplementedException();
+        return time >= particles.deathTime[idx];
+    }
+    
+    /**
+     * Let the forces prepare for a pass over the particles at their
+     * current positions.
+     */
+    protected void prepareForces() {
+        if(forces != null) {
+            for(int k = 0; k < forces.length; k ++) {
+                forces[k].prepare(particles);
+            }
+        }
+    }
+    
+    /**
+     * Sum the forces on the particles [begin,end) in the force column.
+     */
+    public void accumulateForces(int begin, int end) {
+        Arrays.fill(particles.force, begin*3, end*3, 0);
+        if(forces != null) {
+            for(int k = 0; k < forces.length; k ++) {
+                forces[k].accumulate(particles, begin, end);
+            }
+        }
     }
     
     /**
-     * Run particle dynamics and update the particles.
+     * Run particle dynamics on the particles [begin,end) for a step dt,
+     * using the forces in the force column. Euler integrators do the
+     * whole step, Velocity Verlet does the first half kick and the drift.
      */
-    public void updateParticleState(double time, int idx) {
-        throw new NotImplementedException();
+    public void updateParticleStates(double dt, int begin, int end) {
+        ParticleBuffer b = particles;
+        double[] pos = b.position, vel = b.velocity, f = b.force, mass = b.mass;
+        switch(integrator) {
+        case INTEGRATOR_SEMI_IMPLICIT_EULER:
+            for(int i = begin; i < end; i ++) {
+                int o = i*3;
+                double h = dt / mass[i];
+                vel[o+0] += f[o+0] * h;
+                vel[o+1] += f[o+1] * h;
+                vel[o+2] += f[o+2] * h;
+                pos[o+0] += vel[o+0] * dt;
+                pos[o+1] += vel[o+1] * dt;
+                pos[o+2] += vel[o+2] * dt;
+            }
+            break;
+        case INTEGRATOR_VELOCITY_VERLET:
+            for(int i = begin; i < end; i ++) {
+                int o = i*3;
+                double h = 0.5 * dt / mass[i];
+                vel[o+0] += f[o+0] * h;
+                vel[o+1] += f[o+1] * h;
+                vel[o+2] += f[o+2] * h;
+                pos[o+0] += vel[o+0] * dt;
+                pos[o+1] += vel[o+1] * dt;
+                pos[o+2] += vel[o+2] * dt;
+            }
+            break;
+        default:
+            for(int i = begin; i < end; i ++) {
+                int o = i*3;
+                double h = dt / mass[i];
+                pos[o+0] += vel[o+0] * dt;
+                pos[o+1] += vel[o+1] * dt;
+                pos[o+2] += vel[o+2] * dt;
+                vel[o+0] += f[o+0] * h;
+                vel[o+1] += f[o+1] * h;
+                vel[o+2] += f[o+2] * h;
+            }
+            break;
+        }
+    }
+    
+    /**
+     * End the step at time time of the particles [begin,end): the second
+     * half kick of Velocity Verlet, with the forces at the new positions,
+     * then respawn the dead particles. With local forces the forces of
+     * the respawned particles are computed right away, so Verlet can keep
+     * the force column for the next step.
+     */
+    public void finishParticleStates(double time, double dt, int begin, int end, boolean localForces) {
+        ParticleBuffer b = particles;
+        boolean verlet = integrator == INTEGRATOR_VELOCITY_VERLET;
+        if(verlet) {
+            double[] vel = b.velocity, f = b.force, mass = b.mass;
+            for(int i = begin; i < end; i ++) {
+                int o = i*3;
+                double h = 0.5 * dt / mass[i];
+                vel[o+0] += f[o+0] * h;
+                vel[o+1] += f[o+1] * h;
+                vel[o+2] += f[o+2] * h;
+            }
+        }
+        for(int i = begin; i < end; i ++) {
+            if(isParticleDead(time, i)) {
+                createParticle(time, i);
+                if(verlet && localForces) {
+                    accumulateForces(i, i + 1);
+                }
+            }
+        }
     }
 
     /**
@@ -102,45 +342,32 @@ public class ParticleSystem extends HierarchyNode {
      */
     public void restartAnimation() {
         particles = null;
+        forcesValid = false;
     }
-}
-
-/**
- * Describe all the propeties associated with this particle.
- */
-class ParticleState {
-    /** Particle position */
-    public Vec3 position;
-    /** Particle velocity */
-    public Vec3 velocity;
-    /** Particle acceleration */
-    public Vec3 acceleration;
-    /** Particle color */
-    public Color color;
-    /** Particle birthday */
-    public double creationTime;
-    /** Particle mass */
-    public double mass;
-    /** Particle size */
-    public double size;
     
     /**
-     * Initialize a new particle born at time time.
+     * Animation cost: every particle sums every force.
      */
-    public ParticleState(double time) {
-        position = new Vec3();
-        velocity = new Vec3();
-        acceleration = new Vec3();
-        color = new Color(1,1,1);
-        creationTime = time;
-        mass = 1;
-        size = 1;
+    public int getAnimationCost() {
+        return numParticles * (1 + (forces == null ? 0 : forces.length));
+    }
+    
+    /**
+     * Particle systems are always animated.
+     */
+    public boolean updateAnimated() {
+        animated = true;
+        return animated;
     }
 }
 
 /** Abstract class for particle sources */
 abstract class ParticleSource {
-   public abstract void createParticle(ParticleState state, Random random);
+   /**
+    * Initialize the particle in slot idx, born at time time.
+    * Random values are drawn from the generator of the slot.
+    */
+   public abstract void createParticle(ParticleBuffer particles, int idx, double time);
 }
 
 /** A simple particle source that generates particles at position position
@@ -162,15 +389,65 @@ class ParticlePointSource extends ParticleSource {
     public Color colorVariation;
     
     /** initialiaze the particle */
-    public void createParticle(ParticleState state, Random random) {
-        throw new NotImplementedException();
+    public void createParticle(ParticleBuffer particles, int idx, double time) {
+        int o = idx*3;
+        particles.position[o+0] = position.x;
+        particles.position[o+1] = position.y;
+        particles.position[o+2] = position.z;
+        // uniform direction on the sphere
+        double z = 2 * particles.nextDouble(idx) - 1;
+        double phi = 2 * Math.PI * particles.nextDouble(idx);
+        double r = Math.sqrt(1 - z*z);
+        double v = velocityMin + particles.nextDouble(idx) * (velocityMax - velocityMin);
+        particles.velocity[o+0] = v * r * Math.cos(phi);
+        particles.velocity[o+1] = v * r * Math.sin(phi);
+        particles.velocity[o+2] = v * z;
+        particles.color[o+0] = randomColor(color.r, colorVariation.r, particles.nextDouble(idx));
+        particles.color[o+1] = randomColor(color.g, colorVariation.g, particles.nextDouble(idx));
+        particles.color[o+2] = randomColor(color.b, colorVariation.b, particles.nextDouble(idx));
+        particles.creationTime[idx] = time;
+        particles.mass[idx] = 1;
+        particles.size[idx] = 1;
+    }
+    
+    /** base plus variation scaled by u in [0,1) mapped to [-1,1), clamped to [0,1] */
+    private static float randomColor(double base, double variation, double u) {
+        double c = base + (2 * u - 1) * variation;
+        return (float)Math.min(1, Math.max(0, c));
     }
 }
 
 /** A force applied to the particles */
 abstract class ParticleForce {
-    /** Evaluate the force applied to the particles */
-    public abstract Vec3 evaluate(ParticleState state, Random random);
+    /**
+     * Add the force applied to the particles [begin,end) to their
+     * entries in particles.force. Ranges are accumulated concurrently,
+     * so a force writes only the entries of its range and draws random
+     * values only from the generators of its particles.
+     */
+    public abstract void accumulate(ParticleBuffer particles, int begin, int end);
+    
+    /**
+     * Whether the force on a particle depends only on that particle,
+     * so that a range of particles can be stepped on its own.
+     */
+    public boolean isLocal() {
+        return false;
+    }
+    
+    /**
+     * Called before the forces are accumulated over all the particles.
+     * Forces that are not local are prepared before every pass, with the
+     * particles at their current positions, local ones once per animate.
+     */
+    public void prepare(ParticleBuffer particles) {
+    }
+    
+    /**
+     * Called when the particle system is tesselated.
+     */
+    public void tesselate() {
+    }
 }
 
 /** A constant force applied to the particles */
@@ -178,8 +455,228 @@ class ParticleConstantForce extends ParticleForce {
     /** Force vector */
     public Vec3 force;
     
-    /** In this case simply copy the force */
-    public Vec3 evaluate(ParticleState state, Random random) {
-        return force;
+    /** A constant force is local */
+    public boolean isLocal() {
+        return true;
+    }
+    
+    /** In this case simply add the force */
+    public void accumulate(ParticleBuffer particles, int begin, int end) {
+        double[] f = particles.force;
+        double fx = force.x, fy = force.y, fz = force.z;
+        for(int i = begin*3; i < end*3; i += 3) {
+            f[i+0] += fx;
+            f[i+1] += fy;
+            f[i+2] += fz;
+        }
+    }
+}
+
+/**
+ * A force that depends on the particles around each particle, within
+ * radius. Before every pass the particles are sorted in a ParticleGrid and
+ * the forces are computed in the order of the grid, so that particles
+ * close in space, which share most of their neighbors, are processed
+ * together. accumulate then only adds the force of each particle.
+ */
+abstract class ParticleNeighborhoodForce extends ParticleForce {
+    /** Radius of the neighborhood */
+    public double radius;
+    /** Particles sorted by cell, rebuilt before every pass */
+    protected final ParticleGrid grid = new ParticleGrid();
+    /** Force on each particle, in the order of the grid */
+    protected double[] sortedForce;
+    /**
+     * Scratch space of grid.findRanges for each task of prepare, kept
+     * between passes so that the step does not allocate
+     */
+    protected int[][] taskRanges = new int[0][];
+    
+    /**
+     * Sort the particles in cells of size radius and compute the forces.
+     * The particles are split in tasks of PARALLEL_GRAIN particles, each
+     * with its own scratch space.
+     */
+    public void prepare(ParticleBuffer particles) {
+        grid.build(particles, radius);
+        if(sortedForce == null || sortedForce.length != particles.count*3) {
+            sortedForce = new double[particles.count*3];
+        }
+        int grain = ParticleSystem.PARALLEL_GRAIN;
+        int tasks = (particles.count + grain - 1) / grain;
+        if(taskRanges.length < tasks) {
+            int[][] ranges = java.util.Arrays.copyOf(taskRanges, tasks);
+            for(int t = taskRanges.length; t < tasks; t ++) {
+                ranges[t] = new int[36];
+            }
+            taskRanges = ranges;
+        }
+        Parallel.forRange(tasks, 1, (tb, te) -> {
+            for(int t = tb; t < te; t ++) {
+                computeForces(particles, t * grain, Math.min(particles.count, (t + 1) * grain), taskRanges[t]);
+            }
+        });
+    }
+    
+    /**
+     * Store in sortedForce the forces on the particles of the grid from
+     * grid.sortedIds[begin] to grid.sortedIds[end-1]. The neighbors are
+     * found with grid.findRanges, using ranges as scratch space.
+     */
+    protected abstract void computeForces(ParticleBuffer particles, int begin, int end, int[] ranges);
+    
+    /** Add the forces computed by prepare */
+    public void accumulate(ParticleBuffer particles, int begin, int end) {
+        double[] f = particles.force, sf = sortedForce;
+        int[] rank = grid.sortedRank;
+        for(int i = begin; i < end; i ++) {
+            int k = rank[i];
+            f[i*3+0] += sf[k*3+0];
+            f[i*3+1] += sf[k*3+1];
+            f[i*3+2] += sf[k*3+2];
+        }
+    }
+}
+
+/**
+ * Pairwise force between particles closer than radius, along the line
+ * between them and fading linearly to zero at radius. Positive strengths
+ * push the particles apart (repulsion), negative ones pull them together
+ * (cohesion). Coincident particles, such as those just emitted by a point
+ * source, have no line between them, so they are pushed along a random
+ * direction fixed by their two slots.
+ */
+class ParticleInteractionForce extends ParticleNeighborhoodForce {
+    /** Force between two coincident particles */
+    public double strength;
+    
+    /** Sum the force of all the neighbors within radius */
+    protected void computeForces(ParticleBuffer particles, int begin, int end, int[] ranges) {
+        double[] sorted = grid.sortedPosition, sf = sortedForce;
+        int[] ids = grid.sortedIds;
+        double r2 = radius * radius, invRadius = 1 / radius;
+        for(int k = begin; k < end; k ++) {
+            double x = sorted[k*3+0], y = sorted[k*3+1], z = sorted[k*3+2];
+            double fx = 0, fy = 0, fz = 0;
+            int nr = grid.findRanges(x, y, z, ranges);
+            for(int r = 0; r < nr; r ++) {
+                for(int j = ranges[r*2]; j < ranges[r*2+1]; j ++) {
+                    if(j == k) {
+                        continue;
+                    }
+                    double dx = x - sorted[j*3+0], dy = y - sorted[j*3+1], dz = z - sorted[j*3+2];
+                    double d2 = dx*dx + dy*dy + dz*dz;
+                    if(d2 >= r2) {
+                        continue;
+                    }
+                    if(d2 == 0) {
+                        // unit direction from the pair of slots, opposite
+                        // for the other particle of the pair
+                        int a = ids[k], b = ids[j];
+                        long h = ParticleBuffer.mix64((long)Math.min(a, b) << 32 | Math.max(a, b));
+                        double cz = 2 * ((h >>> 40) * 0x1.0p-24) - 1;
+                        double phi = 2 * Math.PI * (((h >>> 16) & 0xffffff) * 0x1.0p-24);
+                        double s = a < b ? strength : -strength;
+                        double cr = s * Math.sqrt(1 - cz*cz);
+                        fx += cr * Math.cos(phi);
+                        fy += cr * Math.sin(phi);
+                        fz += s * cz;
+                        continue;
+                    }
+                    double d = Math.sqrt(d2);
+                    double s = strength * (1 - d * invRadius) / d;
+                    fx += dx * s;
+                    fy += dy * s;
+                    fz += dz * s;
+                }
+            }
+            sf[k*3+0] = fx;
+            sf[k*3+1] = fy;
+            sf[k*3+2] = fz;
+        }
     }
-}
\ No newline at end of file
+}
+
+/**
+ * Collision of the particles against the triangles of a set of surfaces,
+ * as a penalty force. A particle closer than radius to a triangle is
+ * pushed away from the closest point with a spring of the given stiffness,
+ * and its approaching velocity is damped. The surfaces are in the space of
+ * the particle system and are not drawn. The triangles are found with a
+ * TriangleGrid built when the system is tesselated, so the surfaces are
+ * assumed not to move.
+ */
+class ParticleCollisionForce extends ParticleForce {
+    /** Surfaces the particles collide with */
+    public Surface colliders[];
+    /** Distance at which the particles start colliding */
+    public double radius;
+    /** Penalty spring stiffness */
+    public double stiffness;
+    /** Damping of the velocity towards the surface */
+    public double damping;
+    /** Triangles of the colliders */
+    protected TriangleGrid grid;
+    /**
+     * Scratch space for the closest point of each particle, so that
+     * particles can be processed in any chunks without allocating
+     */
+    protected double[] closestPoint;
+    
+    /** Only the particle and the static colliders are involved */
+    public boolean isLocal() {
+        return true;
+    }
+    
+    /** Tesselate the colliders and build the triangle grid */
+    public void tesselate() {
+        for(int s = 0; s < colliders.length; s ++) {
+            colliders[s].tesselate();
+        }
+        grid = new TriangleGrid(colliders, radius);
+    }
+    
+    /**
+     * Build the triangle grid if the system was not tesselated, and the
+     * scratch space if the number of particles changed
+     */
+    public void prepare(ParticleBuffer particles) {
+        if(closestPoint == null || closestPoint.length != particles.count*3) {
+            closestPoint = new double[particles.count*3];
+        }
+        if(grid == null) {
+            for(int s = 0; s < colliders.length; s ++) {
+                if(colliders[s].tesselatedMesh == null) {
+                    colliders[s].tesselate();
+                }
+            }
+            grid = new TriangleGrid(colliders, radius);
+        }
+    }
+    
+    /** Penalty force from the closest triangle */
+    public void accumulate(ParticleBuffer particles, int begin, int end) {
+        double[] pos = particles.position, vel = particles.velocity, f = particles.force;
+        double[] c = closestPoint;
+        for(int i = begin; i < end; i ++) {
+            int o = i*3;
+            int t = grid.findClosest(pos[o+0], pos[o+1], pos[o+2], c, o);
+            if(t < 0) {
+                continue;
+            }
+            double nx = pos[o+0] - c[o+0], ny = pos[o+1] - c[o+1], nz = pos[o+2] - c[o+2];
+            double d = Math.sqrt(nx*nx + ny*ny + nz*nz);
+            if(d > 0) {
+                nx /= d; ny /= d; nz /= d;
+            } else {
+                grid.getNormal(t, c, o);
+                nx = c[o+0]; ny = c[o+1]; nz = c[o+2];
+            }
+            double vn = vel[o+0]*nx + vel[o+1]*ny + vel[o+2]*nz;
+            double fn = stiffness * (radius - d) - (vn < 0 ? damping * vn : 0);
+            f[o+0] += fn * nx;
+            f[o+1] += fn * ny;
+            f[o+2] += fn * nz;
+        }
+    }
+}
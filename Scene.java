@@ -20,6 +20,20 @@ public class Scene {
      * Current time
      */
     public double               time;
+    
+    /**
+     * Flattened hierarchy used to animate and draw.
+     * Built on first use, rebuilt by compile.
+     */
+    protected CompiledScene     compiledScene;
+    
+    /**
+     * Animate independent subtrees in parallel. Off by default,
+     * it can be set in the scene file or with the parallelAnimation
+     * system property.
+     * @see CompiledScene#animate(double, boolean)
+     */
+    public boolean              parallelAnimation = Boolean.getBoolean("parallelAnimation");
 	
 	/**
 	 * Default constructor.
@@ -41,16 +55,54 @@ public class Scene {
         hierarchyRoot.tesselate();
     }
     
+    /**
+     * Parser callback: find the static subtrees of the hierarchy
+     * and flatten it.
+     * @see HierarchyNode#updateAnimated()
+     */
+    public void initFromParser() {
+        hierarchyRoot.updateAnimated();
+        compile();
+    }
+    
+    /**
+     * Flatten the hierarchy. Must be called after structural edits,
+     * after calling updateAnimated on the root if animation curves
+     * were added or removed.
+     */
+    public void compile() {
+        compiledScene = new CompiledScene(hierarchyRoot);
+    }
+    
+    /**
+     * Returns the flattened hierarchy, building it if needed.
+     */
+    public CompiledScene getCompiledScene() {
+        if(compiledScene == null) {
+            compile();
+        }
+        return compiledScene;
+    }
+    
     /**
      * Evaluates the state of the graph at the given time.
+     * Static subtrees are skipped.
      */
     public void animate(double time) {
         this.time = time;
-        hierarchyRoot.animate(time);
+        getCompiledScene().animate(time, parallelAnimation);
+    }
+    
+    /**
+     * Update the cached transform matrices. Only the transforms that
+     * changed since the last call, and their descendants, are recomputed.
+     */
+    public void updateWorldMatrices() {
+        getCompiledScene().updateWorldMatrices();
     }
 
     public void restartAnimation() {
         this.time = 0;
-        hierarchyRoot.restartAnimation();
+        getCompiledScene().restartAnimation();
     }
 }
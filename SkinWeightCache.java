@@ -0,0 +1,217 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * On-disk cache of the automatic vertex weights of skinned meshes.
+ *
+ * The cache is enabled by setting the "skinWeightCache" system property to
+ * a directory. Each entry is a file named after a hash of everything the
+ * weights depend on: the tesselated rest positions, the bone pose transforms
+ * and sizes, autoWeightsMaxDistance and MAX_INFLUENCES. Changing any of them
+ * changes the name, so stale entries are simply never read again.
+ *
+ * An entry is a header followed by the influence bones and weights,
+ * in the layout of SkinnedMesh, so it can be mapped and copied in bulk
+ * when loading:
+ * <pre>
+ * int   MAGIC
+ * int   number of vertices
+ * int   MAX_INFLUENCES
+ * byte  key[32]
+ * short influenceBones[numVertices * MAX_INFLUENCES]
+ * float influenceWeights[numVertices * MAX_INFLUENCES]
+ * </pre>
+ *
+ * @author fabio
+ */
+public class SkinWeightCache {
+    /**
+     * File magic, also the format version. Change it whenever the weight
+     * computation changes, so that old entries are not used.
+     */
+    static final int MAGIC = 0x534b5701;
+
+    /**
+     * Size of the header in bytes.
+     */
+    static final int HEADER_SIZE = 12 + 32;
+
+    /**
+     * Returns the cache directory, or null if caching is disabled.
+     */
+    public static File getDirectory() {
+        String dir = System.getProperty("skinWeightCache");
+        return dir == null ? null : new File(dir);
+    }
+
+    /**
+     * Hash of the inputs of the weight computation of sm. Its bones must
+     * have their pose transforms computed.
+     */
+    public static byte[] computeKey(SkinnedMesh sm) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        Mesh rest = sm.skin.tesselatedMesh;
+        int nV = rest.getNumVertices();
+        ByteBuffer buffer = ByteBuffer.allocate(8 * 1024);
+        buffer.putInt(MAGIC);
+        buffer.putInt(nV);
+        buffer.putInt(SkinnedMesh.MAX_INFLUENCES);
+        buffer.putDouble(sm.autoWeightsMaxDistance);
+        buffer.putInt(sm.bones.length);
+        Vec3 p = new Vec3();
+        for (int v = 0; v < nV; v++) {
+            if (buffer.remaining() < 24) {
+                flush(digest, buffer);
+            }
+            rest.getVertexPos(v, p);
+            buffer.putDouble(p.x);
+            buffer.putDouble(p.y);
+            buffer.putDouble(p.z);
+        }
+        for (int b = 0; b < sm.bones.length; b++) {
+            if (buffer.remaining() < 19 * 8) {
+                flush(digest, buffer);
+            }
+            Bone bone = sm.bones[b];
+            for (int i = 0; i < 16; i++) {
+                buffer.putDouble(bone.m0i.d[i]);
+            }
+            buffer.putDouble(bone.size.x);
+            buffer.putDouble(bone.size.y);
+            buffer.putDouble(bone.size.z);
+        }
+        flush(digest, buffer);
+        return digest.digest();
+    }
+
+    /**
+     * Add the content of buffer to digest and clear it.
+     */
+    private static void flush(MessageDigest digest, ByteBuffer buffer) {
+        digest.update(buffer.array(), 0, buffer.position());
+        buffer.clear();
+    }
+
+    /**
+     * Returns the file of the entry with the given key.
+     */
+    static File getFile(File dir, byte[] key) {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < key.length; i++) {
+            name.append(Character.forDigit((key[i] >> 4) & 0xf, 16));
+            name.append(Character.forDigit(key[i] & 0xf, 16));
+        }
+        name.append(".weights");
+        return new File(dir, name.toString());
+    }
+
+    /**
+     * Load the weights of sm from the entry with the given key.
+     * Returns false if there is no valid entry.
+     */
+    public static boolean load(SkinnedMesh sm, byte[] key) {
+        File dir = getDirectory();
+        if (dir == null) {
+            return false;
+        }
+        File file = getFile(dir, key);
+        if (!file.isFile()) {
+            return false;
+        }
+        int nV = sm.skin.tesselatedMesh.getNumVertices();
+        int n = nV * SkinnedMesh.MAX_INFLUENCES;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+                FileChannel channel = raf.getChannel()) {
+            if (channel.size() != HEADER_SIZE + n * 6L) {
+                return false;
+            }
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (map.getInt() != MAGIC || map.getInt() != nV ||
+                    map.getInt() != SkinnedMesh.MAX_INFLUENCES) {
+                return false;
+            }
+            for (int i = 0; i < key.length; i++) {
+                if (map.get() != key[i]) {
+                    return false;
+                }
+            }
+            short[] bones = new short[n];
+            float[] weights = new float[n];
+            map.asShortBuffer().get(bones);
+            map.position(HEADER_SIZE + n * 2);
+            map.asFloatBuffer().get(weights);
+            sm.influenceBones = bones;
+            sm.influenceWeights = weights;
+            return true;
+        } catch (IOException e) {
+            System.out.println("Problem reading skin weight cache: " + file);
+            System.out.println(e.toString());
+            return false;
+        }
+    }
+
+    /**
+     * Save the weights of sm in the entry with the given key.
+     * The entry is written to a temporary file of its own and then moved
+     * in place atomically, so that readers never see a partial entry and
+     * meshes saving the same entry at the same time do not interfere.
+     * The entry is written with plain channel writes: a mapping would keep
+     * the file open until collected on some platforms.
+     */
+    public static void save(SkinnedMesh sm, byte[] key) {
+        File dir = getDirectory();
+        if (dir == null) {
+            return;
+        }
+        File file = getFile(dir, key);
+        int n = sm.influenceBones.length;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + n * 6);
+        buffer.putInt(MAGIC);
+        buffer.putInt(sm.skin.tesselatedMesh.getNumVertices());
+        buffer.putInt(SkinnedMesh.MAX_INFLUENCES);
+        buffer.put(key);
+        buffer.asShortBuffer().put(sm.influenceBones);
+        buffer.position(HEADER_SIZE + n * 2);
+        buffer.asFloatBuffer().put(sm.influenceWeights);
+        buffer.rewind();
+        File tmp = null;
+        try {
+            dir.mkdirs();
+            tmp = File.createTempFile(file.getName(), ".tmp", dir);
+            try (FileOutputStream out = new FileOutputStream(tmp);
+                    FileChannel channel = out.getChannel()) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+            }
+            try {
+                Files.move(tmp.toPath(), file.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            System.out.println("Problem writing skin weight cache: " + file);
+            System.out.println(e.toString());
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+}
@@ -17,21 +17,64 @@ public class SkinnedMesh extends Surface {
     public Mesh         skin;
     
     /**
-     * Flattened list of bones
+     * Flattened list of bones, sorted so that parents come before children
+     * by sortBones.
      */
     public Bone   bones[];
     
     /**
-     * Vertex weights.
-     * The first index is the vertex index, 
-     * while the second is the bone index.
+     * Maximum number of bones influencing a vertex.
      */
-    public double vertexWeights[][];
+    public static final int MAX_INFLUENCES = 4;
+
+    /**
+     * Maximum number of bones, as bone indices are stored as shorts.
+     */
+    public static final int MAX_BONES = Short.MAX_VALUE;
+    
+    /**
+     * Bones influencing each vertex, MAX_INFLUENCES per vertex
+     * starting at v*MAX_INFLUENCES, sorted by decreasing weight.
+     * Unused slots have bone 0 and weight 0.
+     */
+    public short influenceBones[];
+    
+    /**
+     * Weights of the bones in influenceBones. 
+     * The weights of a vertex sum to 1.
+     */
+    public float influenceWeights[];
     
     /**
      * Min distance for automatic weighting
      */
     public double autoWeightsMaxDistance = 2;
+    
+    /**
+     * Blend the bones as dual quaternions instead of matrices.
+     * Dual quaternion skinning keeps the volume of twisted and bent joints
+     * and is cheaper per influence.
+     */
+    public boolean dualQuaternionSkinning;
+    
+    /**
+     * Skinning matrix m * m0i of each bone, updated by animate.
+     * Only the first three rows are stored, 12 values per bone.
+     */
+    protected double[] skinningMatrices;
+    
+    /**
+     * Skinning normal matrix nm * nm0i of each bone, updated by animate.
+     * Only the upper 3x3 block is stored, 9 values per bone.
+     */
+    protected double[] skinningNormalMatrices;
+    
+    /**
+     * Skinning dual quaternion of each bone, updated by animate when
+     * dualQuaternionSkinning is set. 8 values per bone.
+     * @see Bone#getSkinningDualQuaternion(double[], int)
+     */
+    protected double[] skinningDualQuaternions;
 
     /**
      * Tesselate the base mesh
@@ -42,47 +85,622 @@ public class SkinnedMesh extends Surface {
         // copy tesselated base mesh in surface one
         tesselatedMesh = skin.tesselatedMesh.copy();
         
-        // compute bones transforms
+        // compute bones transforms, parents first
+        sortBones();
         for (int b = 0; b < bones.length; b++) {
-            bones[b].computePoseTransforms();
+            bones[b].computePoseTransforms(getParentBone(b));
         }
         
-        // compute weights based on vertex/bone distance
-        computeVertexWeights();
+        // compute weights based on vertex/bone distance, unless cached
+        if (SkinWeightCache.getDirectory() == null) {
+            computeVertexWeights();
+        } else {
+            byte[] key = SkinWeightCache.computeKey(this);
+            if (!SkinWeightCache.load(this, key)) {
+                computeVertexWeights();
+                SkinWeightCache.save(this, key);
+            }
+        }
+    }
+
+    /**
+     * Parser callback: sort the bones.
+     */
+    public void initFromParser() {
+        sortBones();
+    }
+
+    /**
+     * Reorder the bones so that every bone comes after its parent,
+     * updating the parent indices. Bones keep their relative order
+     * within the same depth, so sorted rigs are left unchanged.
+     * Rigs of more than MAX_BONES bones are rejected.
+     */
+    public void sortBones() {
+        int n = bones.length;
+        if (n > MAX_BONES) {
+            throw new IllegalArgumentException("too many bones: " + n + ", at most " + MAX_BONES);
+        }
+        boolean sorted = true;
+        for (int b = 0; b < n; b++) {
+            if (bones[b].parent >= b) {
+                sorted = false;
+            }
+        }
+        if (sorted) {
+            return;
+        }
+
+        // depth of each bone, at most n-1 without cycles
+        int[] depth = new int[n];
+        int maxDepth = 0;
+        for (int b = 0; b < n; b++) {
+            int d = 0;
+            for (int p = bones[b].parent; p >= 0; p = bones[p].parent) {
+                if (p >= n || ++d >= n) {
+                    throw new IllegalArgumentException("invalid bone hierarchy at bone " + b);
+                }
+            }
+            depth[b] = d;
+            maxDepth = Math.max(maxDepth, d);
+        }
+
+        // stable counting sort by depth
+        int[] start = new int[maxDepth + 2];
+        for (int b = 0; b < n; b++) {
+            start[depth[b] + 1]++;
+        }
+        for (int d = 0; d <= maxDepth; d++) {
+            start[d + 1] += start[d];
+        }
+        int[] newIndex = new int[n];
+        Bone[] sortedBones = new Bone[n];
+        for (int b = 0; b < n; b++) {
+            newIndex[b] = start[depth[b]]++;
+            sortedBones[newIndex[b]] = bones[b];
+        }
+        for (int b = 0; b < n; b++) {
+            if (sortedBones[b].parent >= 0) {
+                sortedBones[b].parent = newIndex[sortedBones[b].parent];
+            }
+        }
+        bones = sortedBones;
+    }
+
+    /**
+     * Returns the parent of bone b, or null.
+     */
+    protected Bone getParentBone(int b) {
+        int p = bones[b].parent;
+        return p < 0 ? null : bones[p];
+    }
+
+    /**
+     * Animate the bones in one pass, parents before children.
+     */
+    protected void animateBones(double time) {
+        for (int b = 0; b < bones.length; b++) {
+            bones[b].animate(time, getParentBone(b));
+        }
     }
 
     /**
      * Compute the vertex weights based on the location of the vertex.
+     * Each weight falls off linearly with the distance from the bone in
+     * its pose, up to autoWeightsMaxDistance. Only the MAX_INFLUENCES
+     * largest weights of a vertex are kept, and they are normalized.
+     * Vertices too far from all bones follow the closest.
+     * A grid over the bones limits the bones tested by each vertex to the
+     * nearby ones, and vertices are processed in parallel.
+     */
+    protected void computeVertexWeights() {
+        final Mesh rest = skin.tesselatedMesh;
+        int nV = rest.getNumVertices();
+        influenceBones = new short[nV * MAX_INFLUENCES];
+        influenceWeights = new float[nV * MAX_INFLUENCES];
+        if (bones.length == 0) {
+            return;
+        }
+        final BoneGrid grid = new BoneGrid(bones, rest, autoWeightsMaxDistance);
+        Parallel.forRange(nV, Mesh.PARALLEL_GRAIN, (begin, end) -> {
+            int[] candidates = new int[bones.length];
+            double[] weights = new double[bones.length];
+            int[] stamps = new int[bones.length];
+            java.util.Arrays.fill(stamps, -1);
+            Vec3 p = new Vec3();
+            Vec3 pl = new Vec3();
+            for (int v = begin; v < end; v++) {
+                rest.getVertexPos(v, p);
+                int n = grid.findBones(p.x, p.y, p.z, autoWeightsMaxDistance, v, stamps, candidates);
+                int nw = 0;
+                int closest = -1;
+                double closestDistance = Double.MAX_VALUE;
+                for (int i = 0; i < n; i++) {
+                    int b = candidates[i];
+                    bones[b].m0i.transformInto(p, pl);
+                    double d = distanceFromCapsule(pl, bones[b].size);
+                    if (d < closestDistance || (d == closestDistance && b < closest)) {
+                        closestDistance = d;
+                        closest = b;
+                    }
+                    double w = 1 - d / autoWeightsMaxDistance;
+                    if (w > 0) {
+                        candidates[nw] = b;
+                        weights[nw] = w;
+                        nw++;
+                    }
+                }
+                if (nw == 0) {
+                    closest = grid.findClosestBone(this, p, pl, v, stamps, closest, closestDistance);
+                }
+                setInfluences(v, candidates, weights, nw, closest);
+            }
+        });
+    }
+
+    /**
+     * Keep the MAX_INFLUENCES largest of the n weights of the candidate
+     * bones of vertex v and normalize them. Ties go to the lower bone index.
+     * If there are no weights the vertex follows closest. weights is modified.
      */
-    private void computeVertexWeights() {
-        throw new NotImplementedException();
+    protected void setInfluences(int v, int[] candidates, double[] weights, int n, int closest) {
+        int o = v * MAX_INFLUENCES;
+        double sum = 0;
+        int k = 0;
+        // selection of the largest weights, in decreasing order
+        for (; k < MAX_INFLUENCES; k++) {
+            int best = -1;
+            for (int i = 0; i < n; i++) {
+                if (weights[i] > 0 && (best < 0 || weights[i] > weights[best] ||
+                        (weights[i] == weights[best] && candidates[i] < candidates[best]))) {
+                    best = i;
+                }
+            }
+            if (best < 0) {
+                break;
+            }
+            influenceBones[o + k] = (short) candidates[best];
+            influenceWeights[o + k] = (float) weights[best];
+            sum += weights[best];
+            weights[best] = 0;
+        }
+        if (k == 0) {
+            influenceBones[o] = (short) closest;
+            influenceWeights[o] = 1;
+            return;
+        }
+        for (int i = 0; i < k; i++) {
+            influenceWeights[o + i] = (float) (influenceWeights[o + i] / sum);
+        }
     }
 
     /**
      * Compute the bone distance by evaluating the distance from
-     * a capsule aligned aligned along the y axis from 0..1.
-     * The point provided has to be in the space of the capsule.
-     * We also pass in the capsule size so we can rescale approprately the weight of the axes.
+     * the axis of the bone, a segment aligned along the y axis from
+     * 0 to size.y. The point provided has to be in the space of the bone.
+     * The distance is in absolute units, as autoWeightsMaxDistance and the
+     * bone grid expect, so the thickness of the bone (size.x and size.z)
+     * is not taken into account.
      */
     public double distanceFromCapsule(Vec3 Pl, Vec3 size) {
-        throw new NotImplementedException();
+        // closest point on the axis, clamped to 0..size.y
+        double y = size.y > 0 ? Math.min(Math.max(Pl.y / size.y, 0), 1) * size.y : 0;
+        double dx = Pl.x;
+        double dy = Pl.y - y;
+        double dz = Pl.z;
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
     }
     
     /**
      * Animate the mesh by computing the deformation of the skin.tesselatedMesh vertices and
      * storing it in the this.teseelatedMesh vertices.
+     * The bone skinning matrices are computed once, then the vertices are
+     * blended in parallel chunks over the packed vertex arrays.
      */
     public void animate(double time) {
-        throw new NotImplementedException();
+        animateBones(time);
+        final Mesh rest = skin.tesselatedMesh;
+        final Mesh mesh = tesselatedMesh;
+        if (dualQuaternionSkinning) {
+            updateSkinningDualQuaternions();
+            Parallel.forRange(rest.getNumVertices(), Mesh.PARALLEL_GRAIN, (begin, end) -> {
+                skinVerticesDualQuaternion(rest, mesh, begin, end);
+            });
+        } else {
+            updateSkinningMatrices();
+            Parallel.forRange(rest.getNumVertices(), Mesh.PARALLEL_GRAIN, (begin, end) -> {
+                skinVertices(rest, mesh, begin, end);
+            });
+        }
+        mesh.verticesChanged();
     }
 
     /**
-     * Restart animation
+     * Compute the dual quaternion of m * m0i for every bone.
      */
-    public void restartAnimation() {
-        tesselatedMesh = skin.tesselatedMesh.copy();
+    protected void updateSkinningDualQuaternions() {
+        if (skinningDualQuaternions == null || skinningDualQuaternions.length != bones.length * 8) {
+            skinningDualQuaternions = new double[bones.length * 8];
+        }
+        for (int b = 0; b < bones.length; b++) {
+            bones[b].getSkinningDualQuaternion(skinningDualQuaternions, b * 8);
+        }
+    }
+
+    /**
+     * Compute m * m0i and nm * nm0i for every bone.
+     */
+    protected void updateSkinningMatrices() {
+        if (skinningMatrices == null || skinningMatrices.length != bones.length * 12) {
+            skinningMatrices = new double[bones.length * 12];
+            skinningNormalMatrices = new double[bones.length * 9];
+        }
+        for (int b = 0; b < bones.length; b++) {
+            double[] m = bones[b].m.d, m0i = bones[b].m0i.d;
+            for (int i = 0; i < 3; i++) {
+                for (int j = 0; j < 4; j++) {
+                    skinningMatrices[b * 12 + i * 4 + j] =
+                            m[i * 4 + 0] * m0i[0 * 4 + j] + m[i * 4 + 1] * m0i[1 * 4 + j] +
+                            m[i * 4 + 2] * m0i[2 * 4 + j] + m[i * 4 + 3] * m0i[3 * 4 + j];
+                }
+            }
+            double[] nm = bones[b].nm.d, nm0i = bones[b].nm0i.d;
+            for (int i = 0; i < 3; i++) {
+                for (int j = 0; j < 3; j++) {
+                    skinningNormalMatrices[b * 9 + i * 3 + j] =
+                            nm[i * 4 + 0] * nm0i[0 * 4 + j] + nm[i * 4 + 1] * nm0i[1 * 4 + j] +
+                            nm[i * 4 + 2] * nm0i[2 * 4 + j];
+                }
+            }
+        }
+    }
+
+    /**
+     * Blend the rest vertices [begin,end) of rest into mesh, which must both be packed.
+     */
+    private void skinVertices(Mesh rest, Mesh mesh, int begin, int end) {
+        double[] srcPos = rest.packedPos;
+        double[] srcNormal = rest.packedNormal;
+        double[] dstPos = mesh.packedPos;
+        double[] dstNormal = mesh.packedNormal;
+        double[] sm = skinningMatrices;
+        double[] snm = skinningNormalMatrices;
+        short[] ib = influenceBones;
+        float[] iw = influenceWeights;
+        for (int v = begin; v < end; v++) {
+            int io = v * MAX_INFLUENCES;
+            double x = srcPos[v * 3 + 0], y = srcPos[v * 3 + 1], z = srcPos[v * 3 + 2];
+            double px = 0, py = 0, pz = 0;
+            for (int i = 0; i < MAX_INFLUENCES; i++) {
+                double wb = iw[io + i];
+                if (wb == 0) {
+                    break;
+                }
+                int o = ib[io + i] * 12;
+                px += wb * (sm[o + 0] * x + sm[o + 1] * y + sm[o + 2] * z + sm[o + 3]);
+                py += wb * (sm[o + 4] * x + sm[o + 5] * y + sm[o + 6] * z + sm[o + 7]);
+                pz += wb * (sm[o + 8] * x + sm[o + 9] * y + sm[o + 10] * z + sm[o + 11]);
+            }
+            dstPos[v * 3 + 0] = px;
+            dstPos[v * 3 + 1] = py;
+            dstPos[v * 3 + 2] = pz;
+            if (srcNormal == null) {
+                continue;
+            }
+            double nx = srcNormal[v * 3 + 0], ny = srcNormal[v * 3 + 1], nz = srcNormal[v * 3 + 2];
+            double qx = 0, qy = 0, qz = 0;
+            for (int i = 0; i < MAX_INFLUENCES; i++) {
+                double wb = iw[io + i];
+                if (wb == 0) {
+                    break;
+                }
+                int o = ib[io + i] * 9;
+                qx += wb * (snm[o + 0] * nx + snm[o + 1] * ny + snm[o + 2] * nz);
+                qy += wb * (snm[o + 3] * nx + snm[o + 4] * ny + snm[o + 5] * nz);
+                qz += wb * (snm[o + 6] * nx + snm[o + 7] * ny + snm[o + 8] * nz);
+            }
+            double l = Math.sqrt(qx * qx + qy * qy + qz * qz);
+            if (l > 0) {
+                l = 1 / l;
+            }
+            dstNormal[v * 3 + 0] = qx * l;
+            dstNormal[v * 3 + 1] = qy * l;
+            dstNormal[v * 3 + 2] = qz * l;
+        }
+    }
+
+    /**
+     * Blend the rest vertices [begin,end) of rest into mesh with dual
+     * quaternions. Both meshes must be packed.
+     */
+    private void skinVerticesDualQuaternion(Mesh rest, Mesh mesh, int begin, int end) {
+        double[] srcPos = rest.packedPos;
+        double[] srcNormal = rest.packedNormal;
+        double[] dstPos = mesh.packedPos;
+        double[] dstNormal = mesh.packedNormal;
+        double[] dq = skinningDualQuaternions;
+        short[] ib = influenceBones;
+        float[] iw = influenceWeights;
+        for (int v = begin; v < end; v++) {
+            int io = v * MAX_INFLUENCES;
+            // blend, keeping all the quaternions in the hemisphere of the first
+            int o0 = ib[io] * 8;
+            double w = 0, x = 0, y = 0, z = 0, dw = 0, dx = 0, dy = 0, dz = 0;
+            for (int i = 0; i < MAX_INFLUENCES; i++) {
+                double wb = iw[io + i];
+                if (wb == 0) {
+                    break;
+                }
+                int o = ib[io + i] * 8;
+                if (dq[o] * dq[o0] + dq[o + 1] * dq[o0 + 1] +
+                        dq[o + 2] * dq[o0 + 2] + dq[o + 3] * dq[o0 + 3] < 0) {
+                    wb = -wb;
+                }
+                w += wb * dq[o];
+                x += wb * dq[o + 1];
+                y += wb * dq[o + 2];
+                z += wb * dq[o + 3];
+                dw += wb * dq[o + 4];
+                dx += wb * dq[o + 5];
+                dy += wb * dq[o + 6];
+                dz += wb * dq[o + 7];
+            }
+            double l = Math.sqrt(w * w + x * x + y * y + z * z);
+            if (l > 0) {
+                l = 1 / l;
+            }
+            w *= l; x *= l; y *= l; z *= l;
+            dw *= l; dx *= l; dy *= l; dz *= l;
+            // translation 2 * dual * conjugate(real)
+            double tx = 2 * (w * dx - dw * x + y * dz - z * dy);
+            double ty = 2 * (w * dy - dw * y + z * dx - x * dz);
+            double tz = 2 * (w * dz - dw * z + x * dy - y * dx);
+            
+            // rotate: p + 2 w (q x p) + 2 q x (q x p)
+            double px = srcPos[v * 3 + 0], py = srcPos[v * 3 + 1], pz = srcPos[v * 3 + 2];
+            double cx = y * pz - z * py, cy = z * px - x * pz, cz = x * py - y * px;
+            dstPos[v * 3 + 0] = px + 2 * (w * cx + y * cz - z * cy) + tx;
+            dstPos[v * 3 + 1] = py + 2 * (w * cy + z * cx - x * cz) + ty;
+            dstPos[v * 3 + 2] = pz + 2 * (w * cz + x * cy - y * cx) + tz;
+            if (srcNormal == null) {
+                continue;
+            }
+            // normals are only rotated, so they stay unit length
+            double nx = srcNormal[v * 3 + 0], ny = srcNormal[v * 3 + 1], nz = srcNormal[v * 3 + 2];
+            cx = y * nz - z * ny; cy = z * nx - x * nz; cz = x * ny - y * nx;
+            dstNormal[v * 3 + 0] = nx + 2 * (w * cx + y * cz - z * cy);
+            dstNormal[v * 3 + 1] = ny + 2 * (w * cy + z * cx - x * cz);
+            dstNormal[v * 3 + 2] = nz + 2 * (w * cz + x * cy - y * cx);
+        }
+    }
+
+    /**
+     * Animation cost: every vertex is blended from up to MAX_INFLUENCES bones.
+     */
+    public int getAnimationCost() {
+        if (tesselatedMesh == null) {
+            return 1;
+        }
+        return tesselatedMesh.getNumVertices() * Math.max(1, Math.min(bones.length, MAX_INFLUENCES));
+    }
+
+    /**
+     * A skinned mesh is animated if any of its bones is. Otherwise the bones
+     * stay in their pose and the skin stays in its rest pose.
+     */
+    public boolean updateAnimated() {
+        animated = false;
         for (int b = 0; b < bones.length; b++) {
-            bones[b].restartAnimation();
+            if (bones[b].translationVariation != null || 
+                bones[b].rotationVariation != null) {
+                animated = true;
+            }
+        }
+        return animated;
+    }
+
+    /**
+     * Restart animation: reset the skin to its rest pose and animate the
+     * bones at time 0, parents first.
+     */
+    public void restartAnimation() {
+        Mesh rest = skin.tesselatedMesh;
+        if (tesselatedMesh != null && tesselatedMesh.packedPos != null &&
+                tesselatedMesh.packedPos.length == rest.packedPos.length) {
+            // reuse the deformed arrays
+            System.arraycopy(rest.packedPos, 0, tesselatedMesh.packedPos, 0, rest.packedPos.length);
+            if (rest.packedNormal != null) {
+                System.arraycopy(rest.packedNormal, 0, tesselatedMesh.packedNormal, 0, rest.packedNormal.length);
+            }
+            tesselatedMesh.verticesChanged();
+        } else {
+            tesselatedMesh = rest.copy();
         }
+        animateBones(0);
     }    
 }
+
+/**
+ * Uniform grid over the bone axes of a skinned mesh in its pose, used to
+ * find the bones near a point. Each cell lists the bones whose axis
+ * bounding box overlaps it, in increasing order.
+ */
+class BoneGrid {
+    /**
+     * Maximum number of cells along an axis.
+     */
+    static final int MAX_CELLS = 64;
+
+    private final double minX, minY, minZ;
+    private final double cellSize;
+    private final int nx, ny, nz;
+    private final int[] cellStart;
+    private int[] cellBones;
+
+    /**
+     * Build the grid over the vertices of rest and the bones, with cells of
+     * about cellSize.
+     */
+    public BoneGrid(Bone[] bones, Mesh rest, double cellSize) {
+        // bone axes in pose, from 0 to size.y along y in bone space
+        double[] axes = new double[bones.length * 6];
+        Mat4 pose = new Mat4();
+        Vec3 p = new Vec3();
+        double x0 = Double.MAX_VALUE, y0 = Double.MAX_VALUE, z0 = Double.MAX_VALUE;
+        double x1 = -Double.MAX_VALUE, y1 = -Double.MAX_VALUE, z1 = -Double.MAX_VALUE;
+        for (int b = 0; b < bones.length; b++) {
+            bones[b].m0i.rigidInverseInto(pose);
+            for (int e = 0; e < 2; e++) {
+                p.set(0, e * bones[b].size.y, 0);
+                pose.transformInto(p, p);
+                axes[b * 6 + e * 3 + 0] = p.x;
+                axes[b * 6 + e * 3 + 1] = p.y;
+                axes[b * 6 + e * 3 + 2] = p.z;
+                x0 = Math.min(x0, p.x); y0 = Math.min(y0, p.y); z0 = Math.min(z0, p.z);
+                x1 = Math.max(x1, p.x); y1 = Math.max(y1, p.y); z1 = Math.max(z1, p.z);
+            }
+        }
+        for (int v = 0; v < rest.getNumVertices(); v++) {
+            rest.getVertexPos(v, p);
+            x0 = Math.min(x0, p.x); y0 = Math.min(y0, p.y); z0 = Math.min(z0, p.z);
+            x1 = Math.max(x1, p.x); y1 = Math.max(y1, p.y); z1 = Math.max(z1, p.z);
+        }
+        double extent = Math.max(x1 - x0, Math.max(y1 - y0, z1 - z0));
+        if (!(cellSize > 0)) {
+            cellSize = extent;
+        }
+        cellSize = Math.max(cellSize, extent / MAX_CELLS);
+        if (!(cellSize > 0)) {
+            cellSize = 1;
+        }
+        this.cellSize = cellSize;
+        minX = x0;
+        minY = y0;
+        minZ = z0;
+        nx = cell(x1, x0);
+        ny = cell(y1, y0);
+        nz = cell(z1, z0);
+        int nx1 = nx + 1, ny1 = ny + 1, nz1 = nz + 1;
+
+        // count, then fill the bones of each cell
+        cellStart = new int[nx1 * ny1 * nz1 + 1];
+        for (int pass = 0; pass < 2; pass++) {
+            for (int b = 0; b < bones.length; b++) {
+                int o = b * 6;
+                int cx0 = cell(Math.min(axes[o], axes[o + 3]), minX);
+                int cx1 = cell(Math.max(axes[o], axes[o + 3]), minX);
+                int cy0 = cell(Math.min(axes[o + 1], axes[o + 4]), minY);
+                int cy1 = cell(Math.max(axes[o + 1], axes[o + 4]), minY);
+                int cz0 = cell(Math.min(axes[o + 2], axes[o + 5]), minZ);
+                int cz1 = cell(Math.max(axes[o + 2], axes[o + 5]), minZ);
+                for (int cz = cz0; cz <= cz1; cz++) {
+                    for (int cy = cy0; cy <= cy1; cy++) {
+                        for (int cx = cx0; cx <= cx1; cx++) {
+                            int c = (cz * ny1 + cy) * nx1 + cx;
+                            if (pass == 0) {
+                                cellStart[c + 1]++;
+                            } else {
+                                cellBones[cellStart[c]++] = b;
+                            }
+                        }
+                    }
+                }
+            }
+            if (pass == 0) {
+                for (int c = 0; c < cellStart.length - 1; c++) {
+                    cellStart[c + 1] += cellStart[c];
+                }
+                cellBones = new int[cellStart[cellStart.length - 1]];
+            } else {
+                // the fill advanced each start to the next one
+                for (int c = cellStart.length - 1; c > 0; c--) {
+                    cellStart[c] = cellStart[c - 1];
+                }
+                cellStart[0] = 0;
+            }
+        }
+    }
+
+    /**
+     * Cell index of x along an axis starting at min, not clamped above.
+     */
+    private int cell(double x, double min) {
+        return Math.max(0, (int) ((x - min) / cellSize));
+    }
+
+    /**
+     * Store in result the bones in the cells within distance of (x,y,z) and
+     * return their number. stamps, initialized to -1 and indexed by bone,
+     * avoids duplicates: each query must pass a different id.
+     */
+    public int findBones(double x, double y, double z, double distance,
+            int id, int[] stamps, int[] result) {
+        int cx0 = Math.min(nx, cell(x - distance, minX)), cx1 = Math.min(nx, cell(x + distance, minX));
+        int cy0 = Math.min(ny, cell(y - distance, minY)), cy1 = Math.min(ny, cell(y + distance, minY));
+        int cz0 = Math.min(nz, cell(z - distance, minZ)), cz1 = Math.min(nz, cell(z + distance, minZ));
+        int n = 0;
+        for (int cz = cz0; cz <= cz1; cz++) {
+            for (int cy = cy0; cy <= cy1; cy++) {
+                for (int cx = cx0; cx <= cx1; cx++) {
+                    int c = (cz * (ny + 1) + cy) * (nx + 1) + cx;
+                    for (int i = cellStart[c]; i < cellStart[c + 1]; i++) {
+                        int b = cellBones[i];
+                        if (stamps[b] != id) {
+                            stamps[b] = id;
+                            result[n++] = b;
+                        }
+                    }
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Returns the bone of mesh closest to p, searching rings of cells of
+     * growing size around p. Ties go to the lower bone index.
+     * The bones stamped with id by findBones are skipped, closest and
+     * closestDistance are the closest of them, or -1 if there are none.
+     * pl is used as temporary storage.
+     */
+    public int findClosestBone(SkinnedMesh mesh, Vec3 p, Vec3 pl,
+            int id, int[] stamps, int closest, double closestDistance) {
+        int px = Math.min(nx, cell(p.x, minX));
+        int py = Math.min(ny, cell(p.y, minY));
+        int pz = Math.min(nz, cell(p.z, minZ));
+        int maxRing = Math.max(nx, Math.max(ny, nz));
+        for (int r = 0; r <= maxRing; r++) {
+            // bones in ring r are at least r-1 cells away
+            if (closest >= 0 && closestDistance < (r - 1) * cellSize) {
+                break;
+            }
+            for (int cz = Math.max(0, pz - r); cz <= Math.min(nz, pz + r); cz++) {
+                for (int cy = Math.max(0, py - r); cy <= Math.min(ny, py + r); cy++) {
+                    // inside the ring only the first and last cells of a row are on it
+                    boolean fullRow = Math.abs(cy - py) == r || Math.abs(cz - pz) == r;
+                    int step = fullRow ? 1 : 2 * r;
+                    for (int cx = px - r; cx <= px + r; cx += step) {
+                        if (cx < 0 || cx > nx) {
+                            continue;
+                        }
+                        int c = (cz * (ny + 1) + cy) * (nx + 1) + cx;
+                        for (int i = cellStart[c]; i < cellStart[c + 1]; i++) {
+                            int b = cellBones[i];
+                            if (stamps[b] == id) {
+                                continue;
+                            }
+                            stamps[b] = id;
+                            mesh.bones[b].m0i.transformInto(p, pl);
+                            double d = mesh.distanceFromCapsule(pl, mesh.bones[b].size);
+                            if (d < closestDistance || (d == closestDistance && b < closest)) {
+                                closestDistance = d;
+                                closest = b;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return closest;
+    }
+}
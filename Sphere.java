@@ -23,42 +23,43 @@ public class Sphere extends Surface {
         //int nFaces = (uSub)*(vSub); // quads
         int nFaces = (uSub)*(vSub) * 2; // triangle
         
-        Vec3[][] vT = new Vec3[uSub+1][vSub+1];
-        for(int iu = 0; iu < uSub+1; iu ++) {
-            for(int iv = 0; iv < vSub+1; iv ++) {
-                vT[iu][iv] = new Vec3();
-                if(iv == 0) {
-                    vT[iu][iv].x = 0;
-                    vT[iu][iv].y = -1;
-                    vT[iu][iv].z = 0;                    
-                } else if(iv == vSub) {
-                    vT[iu][iv].x = 0;
-                    vT[iu][iv].y = 1;
-                    vT[iu][iv].z = 0;                                        
-                } else {
-                    double u = (double)iu/(double)(uSub);
-                    double v = (double)iv/(double)(vSub);
-                    vT[iu][iv].x = Math.sin((1-v)*Math.PI)*Math.cos(u*Math.PI*2);
-                    vT[iu][iv].y = Math.cos((1-v)*Math.PI);
-                    vT[iu][iv].z = Math.sin((1-v)*Math.PI)*Math.sin(u*Math.PI*2);
-                }
-            }
-        }
-        
         // allocate
 	    //tesselatedMesh = new Mesh(nVertices,nFaces,true); // quads
-        tesselatedMesh = new Mesh(nVertices,nFaces,false); // triangles
+        final Mesh mesh = new Mesh(nVertices,nFaces,false,true); // triangles
         
-        // copy vertices/normals in array
-        for(int iu = 0; iu < uSub+1; iu ++) {
-            for(int iv = 0; iv < vSub+1; iv ++) {
-                tesselatedMesh.vertexPos[iu*(vSub+1)+iv].set(vT[iu][iv]);
-                tesselatedMesh.vertexPos[iu*(vSub+1)+iv].setToScale(radius);
-                tesselatedMesh.vertexPos[iu*(vSub+1)+iv].setToAdd(position);
-                tesselatedMesh.vertexNormal[iu*(vSub+1)+iv].set(vT[iu][iv]);
-                tesselatedMesh.vertexNormal[iu*(vSub+1)+iv].setToNormalize();
+        // rows of vertices and faces are independent so they are created in parallel
+        int rowGrain = Math.max(1, Mesh.PARALLEL_GRAIN / (vSub+1));
+        
+        // create vertices on a unit sphere and copy vertices/normals in array
+        Parallel.forRange(uSub+1, rowGrain, (begin, end) -> {
+            Vec3 vT = new Vec3();
+            Vec3 n = new Vec3();
+            for(int iu = begin; iu < end; iu ++) {
+                for(int iv = 0; iv < vSub+1; iv ++) {
+                    if(iv == 0) {
+                        vT.x = 0;
+                        vT.y = -1;
+                        vT.z = 0;                    
+                    } else if(iv == vSub) {
+                        vT.x = 0;
+                        vT.y = 1;
+                        vT.z = 0;                                        
+                    } else {
+                        double u = (double)iu/(double)(uSub);
+                        double v = (double)iv/(double)(vSub);
+                        vT.x = Math.sin((1-v)*Math.PI)*Math.cos(u*Math.PI*2);
+                        vT.y = Math.cos((1-v)*Math.PI);
+                        vT.z = Math.sin((1-v)*Math.PI)*Math.sin(u*Math.PI*2);
+                    }
+                    Vec3.normalizeInto(vT, n);
+                    mesh.setVertexPos(iu*(vSub+1)+iv,
+                            vT.x*radius+position.x,
+                            vT.y*radius+position.y,
+                            vT.z*radius+position.z);
+                    mesh.setVertexNormal(iu*(vSub+1)+iv, n.x, n.y, n.z);
+                }
             }
-        }
+        });
         
         // create faces
         /*
@@ -75,18 +76,22 @@ public class Sphere extends Surface {
         */
         
         //triangles
-        int curF = 0;
-        for(int iu = 0; iu < uSub; iu ++) {
-            for(int iv = 0; iv < vSub; iv ++) {
-                tesselatedMesh.setTriangleFace(curF,
-                        iu*(vSub+1)+iv,iu*(vSub+1)+iv+1,
-                        (iu+1)*(vSub+1)+iv+1);
-                curF ++;
-                tesselatedMesh.setTriangleFace(curF,
-                        iu*(vSub+1)+iv,(iu+1)*(vSub+1)+iv+1,
-                        (iu+1)*(vSub+1)+iv);
-                curF ++;
+        Parallel.forRange(uSub, rowGrain, (begin, end) -> {
+            for(int iu = begin; iu < end; iu ++) {
+                int curF = iu*vSub*2;
+                for(int iv = 0; iv < vSub; iv ++) {
+                    mesh.setTriangleFace(curF,
+                            iu*(vSub+1)+iv,iu*(vSub+1)+iv+1,
+                            (iu+1)*(vSub+1)+iv+1);
+                    curF ++;
+                    mesh.setTriangleFace(curF,
+                            iu*(vSub+1)+iv,(iu+1)*(vSub+1)+iv+1,
+                            (iu+1)*(vSub+1)+iv);
+                    curF ++;
+                }
             }
-        }
+        });
+        
+        tesselatedMesh = mesh;
 	}
 }
@@ -32,4 +32,12 @@ public abstract class Surface extends HierarchyNode {
      */
     public void restartAnimation() {
     }
+
+    /**
+     * Surfaces are static unless a subclass says otherwise.
+     */
+    public boolean updateAnimated() {
+        animated = false;
+        return animated;
+    }
 }
@@ -41,6 +41,18 @@ public class Transform extends HierarchyNode {
      */
     public Vec3Animation scaleVariation;
     
+    /**
+     * Local matrix T * S * Rx * Ry * Rz, cached.
+     * Updated by CompiledScene.updateWorldMatrices.
+     */
+    protected Mat4 localMatrix = new Mat4();
+    
+    /**
+     * World matrix, the parent world matrix times the local one, cached.
+     * Updated by CompiledScene.updateWorldMatrices.
+     */
+    protected Mat4 worldMatrix = new Mat4();
+    
     /**
      * Empty transform
      */
@@ -53,11 +65,14 @@ public class Transform extends HierarchyNode {
     
     /**
      * Tesselate all children.
+     * Children are independent, so they are tesselated in parallel.
      */
     public void tesselate() {
-        for(int i = 0; i < children.length; i ++) {
-            children[i].tesselate();
-        }
+        Parallel.forRange(children.length, 1, (begin, end) -> {
+            for(int i = begin; i < end; i ++) {
+                children[i].tesselate();
+            }
+        });
     }
     
     /**
@@ -66,15 +81,69 @@ public class Transform extends HierarchyNode {
      * transform values for the given time.
      * The values at the given time will be stored in the
      * translation, rotation and scale fields.
+     * Static children are skipped.
      */
     public void animate(double time) {
-        throw new NotImplementedException();
+        if(translationVariation != null) {
+            translationVariation.evaluateInto(time, translation);
+        }
+        if(rotationVariation != null) {
+            rotationVariation.evaluateInto(time, rotation);
+        }
+        if(scaleVariation != null) {
+            scaleVariation.evaluateInto(time, scale);
+        }
+        for(int i = 0; i < children.length; i ++) {
+            if(children[i].isAnimated()) {
+                children[i].animate(time);
+            }
+        }
     }
 
     /**
      * Reset the animation at time 0
      */
     public void restartAnimation() {
-        throw new NotImplementedException();
-    }    
+        if(translationVariation != null) {
+            translationVariation.evaluateInto(0, translation);
+        }
+        if(rotationVariation != null) {
+            rotationVariation.evaluateInto(0, rotation);
+        }
+        if(scaleVariation != null) {
+            scaleVariation.evaluateInto(0, scale);
+        }
+        for(int i = 0; i < children.length; i ++) {
+            children[i].restartAnimation();
+        }
+    }
+    
+    /**
+     * A transform is animated if it has any variation or any animated child.
+     */
+    public boolean updateAnimated() {
+        animated = translationVariation != null || 
+                   rotationVariation != null || 
+                   scaleVariation != null;
+        for(int i = 0; i < children.length; i ++) {
+            if(children[i].updateAnimated()) {
+                animated = true;
+            }
+        }
+        return animated;
+    }
+    
+    /**
+     * Returns the local matrix, valid after Scene.updateWorldMatrices.
+     */
+    public Mat4 getLocalMatrix() {
+        return localMatrix;
+    }
+    
+    /**
+     * Returns the world matrix, valid after Scene.updateWorldMatrices.
+     */
+    public Mat4 getWorldMatrix() {
+        return worldMatrix;
+    }
 }
@@ -0,0 +1,266 @@
+/**
+ * Uniform grid over the triangles of a set of surfaces, used to find the
+ * triangles close to a point without looking at all of them.
+ *
+ * The grid covers the bounding box of the triangles grown by a query
+ * distance, and every triangle is listed in all the cells its grown box
+ * overlaps. So the triangles within the query distance of a point are all
+ * in the cell of the point. The lists are stored flat: the triangles of
+ * cell c are cellTriangles[cellStart[c]] to cellTriangles[cellStart[c+1]-1].
+ *
+ * The grid is built once from the tesselated meshes, quads are split in
+ * two triangles. It does not follow later changes of the meshes.
+ */
+public class TriangleGrid {
+    /**
+     * Maximum number of cells along an axis.
+     */
+    static final int MAX_CELLS = 64;
+
+    /**
+     * Triangle vertices, 9 values per triangle
+     */
+    protected double[] triangles;
+
+    /**
+     * Triangle unit normals, 3 values per triangle
+     */
+    protected double[] normals;
+
+    /**
+     * Query distance the grid was built for
+     */
+    protected double distance;
+
+    protected double minX, minY, minZ;
+    protected double cellSize;
+    protected int nx, ny, nz;
+    protected int[] cellStart;
+    protected int[] cellTriangles;
+
+    /**
+     * Build the grid over the tesselated meshes of surfaces, for queries
+     * of up to distance.
+     */
+    public TriangleGrid(Surface[] surfaces, double distance) {
+        this.distance = distance;
+        int nT = 0;
+        for(int s = 0; s < surfaces.length; s ++) {
+            Mesh m = surfaces[s].tesselatedMesh;
+            nT += m.getNumFaces() * (m.verticesPerFace() - 2);
+        }
+        triangles = new double[nT*9];
+        normals = new double[nT*3];
+        Vec3 p = new Vec3();
+        int t = 0;
+        for(int s = 0; s < surfaces.length; s ++) {
+            Mesh m = surfaces[s].tesselatedMesh;
+            int vpf = m.verticesPerFace();
+            for(int f = 0; f < m.getNumFaces(); f ++) {
+                // fan the face in triangles
+                for(int k = 0; k < vpf - 2; k ++) {
+                    for(int j = 0; j < 3; j ++) {
+                        m.getVertexPos(m.getFaceVertexIndex(f, j == 0 ? 0 : k + j), p);
+                        triangles[t*9+j*3+0] = p.x;
+                        triangles[t*9+j*3+1] = p.y;
+                        triangles[t*9+j*3+2] = p.z;
+                    }
+                    t ++;
+                }
+            }
+        }
+
+        double x0 = Double.MAX_VALUE, y0 = Double.MAX_VALUE, z0 = Double.MAX_VALUE;
+        double x1 = -Double.MAX_VALUE, y1 = -Double.MAX_VALUE, z1 = -Double.MAX_VALUE;
+        for(t = 0; t < nT; t ++) {
+            double[] tr = triangles;
+            int o = t*9;
+            double ex = tr[o+3] - tr[o+0], ey = tr[o+4] - tr[o+1], ez = tr[o+5] - tr[o+2];
+            double fx = tr[o+6] - tr[o+0], fy = tr[o+7] - tr[o+1], fz = tr[o+8] - tr[o+2];
+            double nxx = ey*fz - ez*fy, nyy = ez*fx - ex*fz, nzz = ex*fy - ey*fx;
+            double l = Math.sqrt(nxx*nxx + nyy*nyy + nzz*nzz);
+            if(l > 0) {
+                normals[t*3+0] = nxx / l;
+                normals[t*3+1] = nyy / l;
+                normals[t*3+2] = nzz / l;
+            }
+            for(int j = 0; j < 3; j ++) {
+                x0 = Math.min(x0, tr[o+j*3+0]); x1 = Math.max(x1, tr[o+j*3+0]);
+                y0 = Math.min(y0, tr[o+j*3+1]); y1 = Math.max(y1, tr[o+j*3+1]);
+                z0 = Math.min(z0, tr[o+j*3+2]); z1 = Math.max(z1, tr[o+j*3+2]);
+            }
+        }
+        if(nT == 0) {
+            x0 = y0 = z0 = x1 = y1 = z1 = 0;
+        }
+        minX = x0 - distance;
+        minY = y0 - distance;
+        minZ = z0 - distance;
+        double extent = Math.max(x1 - x0, Math.max(y1 - y0, z1 - z0)) + 2 * distance;
+        // about one triangle per cell, but no smaller than the query distance
+        cellSize = Math.max(distance, Math.max(extent / MAX_CELLS, extent / Math.cbrt(Math.max(1, nT))));
+        if(!(cellSize > 0)) {
+            cellSize = 1;
+        }
+        nx = cell(x1 + distance, minX);
+        ny = cell(y1 + distance, minY);
+        nz = cell(z1 + distance, minZ);
+        int nx1 = nx + 1, ny1 = ny + 1, nz1 = nz + 1;
+
+        // count, then fill the triangles of each cell
+        cellStart = new int[nx1 * ny1 * nz1 + 1];
+        for(int pass = 0; pass < 2; pass ++) {
+            for(t = 0; t < nT; t ++) {
+                double[] tr = triangles;
+                int o = t*9;
+                int cx0 = cell(Math.min(tr[o+0], Math.min(tr[o+3], tr[o+6])) - distance, minX);
+                int cx1 = cell(Math.max(tr[o+0], Math.max(tr[o+3], tr[o+6])) + distance, minX);
+                int cy0 = cell(Math.min(tr[o+1], Math.min(tr[o+4], tr[o+7])) - distance, minY);
+                int cy1 = cell(Math.max(tr[o+1], Math.max(tr[o+4], tr[o+7])) + distance, minY);
+                int cz0 = cell(Math.min(tr[o+2], Math.min(tr[o+5], tr[o+8])) - distance, minZ);
+                int cz1 = cell(Math.max(tr[o+2], Math.max(tr[o+5], tr[o+8])) + distance, minZ);
+                for(int cz = cz0; cz <= Math.min(nz, cz1); cz ++) {
+                    for(int cy = cy0; cy <= Math.min(ny, cy1); cy ++) {
+                        for(int cx = cx0; cx <= Math.min(nx, cx1); cx ++) {
+                            int c = (cz * ny1 + cy) * nx1 + cx;
+                            if(pass == 0) {
+                                cellStart[c + 1] ++;
+                            } else {
+                                cellTriangles[cellStart[c] ++] = t;
+                            }
+                        }
+                    }
+                }
+            }
+            if(pass == 0) {
+                for(int c = 0; c < cellStart.length - 1; c ++) {
+                    cellStart[c + 1] += cellStart[c];
+                }
+                cellTriangles = new int[cellStart[cellStart.length - 1]];
+            } else {
+                // the fill advanced each start to the next one
+                for(int c = cellStart.length - 1; c > 0; c --) {
+                    cellStart[c] = cellStart[c - 1];
+                }
+                cellStart[0] = 0;
+            }
+        }
+    }
+
+    /**
+     * Cell index of x along an axis starting at min, not clamped above.
+     */
+    private int cell(double x, double min) {
+        return Math.max(0, (int)((x - min) / cellSize));
+    }
+
+    /**
+     * Returns the number of triangles.
+     */
+    public int getNumTriangles() {
+        return normals.length / 3;
+    }
+
+    /**
+     * Returns the triangle closest to (x,y,z) among those within the
+     * distance the grid was built for, or -1 if there is none. The closest
+     * point is stored in closest at offset, which is also used as scratch.
+     */
+    public int findClosest(double x, double y, double z, double[] closest, int offset) {
+        int cx = cell(x, minX), cy = cell(y, minY), cz = cell(z, minZ);
+        if(cx > nx || cy > ny || cz > nz || x < minX || y < minY || z < minZ) {
+            return -1;
+        }
+        int c = (cz * (ny + 1) + cy) * (nx + 1) + cx;
+        int best = -1;
+        double bestD2 = distance * distance;
+        double bx = 0, by = 0, bz = 0;
+        for(int i = cellStart[c]; i < cellStart[c + 1]; i ++) {
+            int t = cellTriangles[i];
+            closestPointOnTriangle(triangles, t*9, x, y, z, closest, offset);
+            double dx = x - closest[offset+0], dy = y - closest[offset+1], dz = z - closest[offset+2];
+            double d2 = dx*dx + dy*dy + dz*dz;
+            if(d2 < bestD2) {
+                bestD2 = d2;
+                best = t;
+                bx = closest[offset+0]; by = closest[offset+1]; bz = closest[offset+2];
+            }
+        }
+        closest[offset+0] = bx; closest[offset+1] = by; closest[offset+2] = bz;
+        return best;
+    }
+
+    /**
+     * Store the unit normal of triangle t in n at offset.
+     */
+    public void getNormal(int t, double[] n, int offset) {
+        n[offset+0] = normals[t*3+0];
+        n[offset+1] = normals[t*3+1];
+        n[offset+2] = normals[t*3+2];
+    }
+
+    /**
+     * Closest point to p on the triangle with vertices at tr[o] to tr[o+8],
+     * stored in dest at offset d. From Ericson, Real-Time Collision
+     * Detection, 5.1.5.
+     */
+    static void closestPointOnTriangle(double[] tr, int o, double px, double py, double pz, double[] dest, int d) {
+        double ax = tr[o+0], ay = tr[o+1], az = tr[o+2];
+        double abx = tr[o+3] - ax, aby = tr[o+4] - ay, abz = tr[o+5] - az;
+        double acx = tr[o+6] - ax, acy = tr[o+7] - ay, acz = tr[o+8] - az;
+        double apx = px - ax, apy = py - ay, apz = pz - az;
+        double d1 = abx*apx + aby*apy + abz*apz;
+        double d2 = acx*apx + acy*apy + acz*apz;
+        if(d1 <= 0 && d2 <= 0) {
+            setPoint(dest, d, ax, ay, az, 0, 0, 0, 0, 0, 0, 0, 0);
+            return;
+        }
+        double bpx = px - tr[o+3], bpy = py - tr[o+4], bpz = pz - tr[o+5];
+        double d3 = abx*bpx + aby*bpy + abz*bpz;
+        double d4 = acx*bpx + acy*bpy + acz*bpz;
+        if(d3 >= 0 && d4 <= d3) {
+            setPoint(dest, d, ax, ay, az, abx, aby, abz, 1, 0, 0, 0, 0);
+            return;
+        }
+        double vc = d1*d4 - d3*d2;
+        if(vc <= 0 && d1 >= 0 && d3 <= 0) {
+            setPoint(dest, d, ax, ay, az, abx, aby, abz, d1 / (d1 - d3), 0, 0, 0, 0);
+            return;
+        }
+        double cpx = px - tr[o+6], cpy = py - tr[o+7], cpz = pz - tr[o+8];
+        double d5 = abx*cpx + aby*cpy + abz*cpz;
+        double d6 = acx*cpx + acy*cpy + acz*cpz;
+        if(d6 >= 0 && d5 <= d6) {
+            setPoint(dest, d, ax, ay, az, 0, 0, 0, 0, acx, acy, acz, 1);
+            return;
+        }
+        double vb = d5*d2 - d1*d6;
+        if(vb <= 0 && d2 >= 0 && d6 <= 0) {
+            setPoint(dest, d, ax, ay, az, 0, 0, 0, 0, acx, acy, acz, d2 / (d2 - d6));
+            return;
+        }
+        double va = d3*d6 - d5*d4;
+        if(va <= 0 && (d4 - d3) >= 0 && (d5 - d6) >= 0) {
+            // on edge bc
+            double w = (d4 - d3) / ((d4 - d3) + (d5 - d6));
+            double bx = tr[o+3], by = tr[o+4], bz = tr[o+5];
+            dest[d+0] = bx + w * (tr[o+6] - bx);
+            dest[d+1] = by + w * (tr[o+7] - by);
+            dest[d+2] = bz + w * (tr[o+8] - bz);
+            return;
+        }
+        double denom = 1 / (va + vb + vc);
+        setPoint(dest, d, ax, ay, az, abx, aby, abz, vb * denom, acx, acy, acz, vc * denom);
+    }
+
+    /**
+     * dest at offset d = a + v*ab + w*ac
+     */
+    private static void setPoint(double[] dest, int d, double ax, double ay, double az,
+            double abx, double aby, double abz, double v,
+            double acx, double acy, double acz, double w) {
+        dest[d+0] = ax + abx * v + acx * w;
+        dest[d+1] = ay + aby * v + acy * w;
+        dest[d+2] = az + abz * v + acz * w;
+    }
+}
@@ -195,8 +195,7 @@ public class Vec3 {
 	 * Assigns the value to this vector.
 	 */
 	public void setToCross(Vec3 v) {
-		// just make a copy for now
-		set(cross(v));
+		crossInto(this, v, this);
 	}
 	
 	/**
@@ -208,6 +207,97 @@ public class Vec3 {
                 		x*v.y - y*v.x);
 	}
 
+	/**
+	 * Vector scalar multiply and add: this += v * s.
+	 * Assigns the value to this vector.
+	 */
+	public void setToScaleAdd(double s, Vec3 v) {
+		x += v.x * s;
+		y += v.y * s;
+		z += v.z * s;
+	}
+
+	/**
+	 * Vector scalar multiply and add: returns this + v * s.
+	 */
+	public Vec3 scaleAdd(double s, Vec3 v) {
+		return new Vec3(x + v.x * s,
+						y + v.y * s,
+						z + v.z * s);
+	}
+
+	/**
+	 * Vector component-wise addition: dest = a + b.
+	 * dest can be a or b. Returns dest.
+	 */
+	public static Vec3 addInto(Vec3 a, Vec3 b, Vec3 dest) {
+		dest.x = a.x + b.x;
+		dest.y = a.y + b.y;
+		dest.z = a.z + b.z;
+		return dest;
+	}
+
+	/**
+	 * Vector component-wise subtraction: dest = a - b.
+	 * dest can be a or b. Returns dest.
+	 */
+	public static Vec3 subInto(Vec3 a, Vec3 b, Vec3 dest) {
+		dest.x = a.x - b.x;
+		dest.y = a.y - b.y;
+		dest.z = a.z - b.z;
+		return dest;
+	}
+
+	/**
+	 * Vector scalar multiply: dest = a * s.
+	 * dest can be a. Returns dest.
+	 */
+	public static Vec3 scaleInto(Vec3 a, double s, Vec3 dest) {
+		dest.x = a.x * s;
+		dest.y = a.y * s;
+		dest.z = a.z * s;
+		return dest;
+	}
+
+	/**
+	 * Vector scalar multiply and add: dest = a + v * s.
+	 * dest can be a or v. Returns dest.
+	 */
+	public static Vec3 scaleAddInto(Vec3 a, double s, Vec3 v, Vec3 dest) {
+		dest.x = a.x + v.x * s;
+		dest.y = a.y + v.y * s;
+		dest.z = a.z + v.z * s;
+		return dest;
+	}
+
+	/**
+	 * Vector cross product: dest = a x b.
+	 * dest can be a or b. Returns dest.
+	 */
+	public static Vec3 crossInto(Vec3 a, Vec3 b, Vec3 dest) {
+		double cx = a.y*b.z - a.z*b.y;
+		double cy = a.z*b.x - a.x*b.z;
+		double cz = a.x*b.y - a.y*b.x;
+		dest.x = cx;
+		dest.y = cy;
+		dest.z = cz;
+		return dest;
+	}
+
+	/**
+	 * Vector normalization: dest = a / |a|, or zero if a is zero.
+	 * dest can be a. Returns dest.
+	 */
+	public static Vec3 normalizeInto(Vec3 a, Vec3 dest) {
+		double l = a.length();
+		if(l > 0) {
+			return scaleInto(a, 1/l, dest);
+		} else {
+			dest.set(0,0,0);
+			return dest;
+		}
+	}
+
 	/**
 	 * Reflect this vector around the normal n.
 	 * This vector is intended as pointing toward the surface.
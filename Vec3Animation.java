@@ -7,4 +7,29 @@ public abstract class Vec3Animation {
      * Evaluates the spline at time t.
      */
     public abstract Vec3 evaluate(double t);
+    
+    /**
+     * Evaluates the spline at time t and stores it in dest.
+     * Subclasses should override this to avoid allocating.
+     * Returns dest.
+     */
+    public Vec3 evaluateInto(double t, Vec3 dest) {
+        dest.set(evaluate(t));
+        return dest;
+    }
+    
+    /**
+     * Evaluates the spline at all the given times, storing x,y,z for
+     * times[i] at out[i*3]. Subclasses can override this to exploit
+     * sorted times.
+     */
+    public void evaluateBatch(double[] times, double[] out) {
+        Vec3 p = new Vec3();
+        for(int i = 0; i < times.length; i ++) {
+            evaluateInto(times[i], p);
+            out[i*3+0] = p.x;
+            out[i*3+1] = p.y;
+            out[i*3+2] = p.z;
+        }
+    }
 }
@@ -0,0 +1,48 @@
+import benchmarks.Workload;
+
+/**
+ * Blends bone colors by vertex weights as drawMeshGeometryWithBoneColor does.
+ * Parameters: number of vertices, number of bones, "allocating" or "inplace".
+ */
+public class ColorBlendWorkload implements Workload {
+    private double[][] weights;
+    private Color[] colors;
+    private Color color;
+    private boolean inplace;
+
+    public void setup(String[] params) {
+        int nV = Integer.parseInt(params[0]);
+        int nB = Integer.parseInt(params[1]);
+        inplace = params[2].equals("inplace");
+        java.util.Random random = new java.util.Random(0);
+        weights = new double[nV][nB];
+        for (int v = 0; v < nV; v++) {
+            for (int b = 0; b < nB; b++) {
+                weights[v][b] = random.nextDouble();
+            }
+        }
+        colors = new Color[nB];
+        for (int b = 0; b < nB; b++) {
+            colors[b] = new Color(random.nextDouble(), random.nextDouble(), random.nextDouble());
+        }
+        color = new Color();
+    }
+
+    public Object run() {
+        double sum = 0;
+        for (int v = 0; v < weights.length; v++) {
+            color.set(0, 0, 0);
+            if (inplace) {
+                for (int b = 0; b < colors.length; b++) {
+                    color.setToScaleAdd(weights[v][b], colors[b]);
+                }
+            } else {
+                for (int b = 0; b < colors.length; b++) {
+                    color.setToAdd(colors[b].scale(weights[v][b]));
+                }
+            }
+            sum += color.r + color.g + color.b;
+        }
+        return Double.valueOf(sum);
+    }
+}
@@ -0,0 +1,43 @@
+import benchmarks.Workload;
+
+/**
+ * Matrix operations on a generic transform.
+ * Parameters: operation, one of multiply, multiplyInto, normalTransform,
+ * normalTransformInto, transformInto, columnMajor.
+ */
+public class Mat4Workload implements Workload {
+    private static final String[] OPS = { "multiply", "multiplyInto",
+        "normalTransform", "normalTransformInto", "transformInto", "columnMajor" };
+
+    private int op;
+    private Mat4 a;
+    private Mat4 b;
+    private Mat4 dest;
+    private Vec3 p;
+    private double[] buffer;
+
+    public void setup(String[] params) {
+        op = java.util.Arrays.asList(OPS).indexOf(params[0]);
+        if (op < 0) {
+            throw new IllegalArgumentException("Unknown operation " + params[0]);
+        }
+        a = new Mat4();
+        a.setTRS(new Vec3(1, 2, 3), new Vec3(0.1, 0.2, 0.3), new Vec3(1, 2, 1));
+        b = new Mat4();
+        b.setTRS(new Vec3(-1, 0, 2), new Vec3(0.5, -0.2, 1.1), new Vec3(2, 2, 2));
+        dest = new Mat4();
+        p = new Vec3(0.3, 0.4, 0.5);
+        buffer = new double[16];
+    }
+
+    public Object run() {
+        switch (op) {
+            case 0: return a.multiply(b);
+            case 1: return Mat4.multiplyInto(a, b, dest);
+            case 2: return a.normalTransform();
+            case 3: return a.normalTransformInto(dest);
+            case 4: return a.transformInto(p, p);
+            default: return a.getFlatDataColumnMajor(buffer, 0);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+import benchmarks.Workload;
+import benchmarks.Workloads;
+
+/**
+ * Tesselates the skin of the first child of a scene.
+ * Parameters: scene file, tesselation level, shared edge vertices.
+ */
+public class MeshTesselateWorkload implements Workload {
+    private Mesh mesh;
+
+    public void setup(String[] params) throws Exception {
+        Scene scene = new FileFormat().parseXMLScene(Workloads.scenePath(params[0]));
+        mesh = ((SkinnedMesh) scene.hierarchyRoot.children[0]).skin;
+        mesh.tesselationLevel = Integer.parseInt(params[1]);
+        mesh.shareEdgeVertices = Boolean.valueOf(params[2]).booleanValue();
+    }
+
+    public Object run() {
+        mesh.tesselate();
+        return mesh.tesselatedMesh;
+    }
+}
@@ -0,0 +1,48 @@
+import benchmarks.Workload;
+
+/**
+ * Steps a synthetic particle system with a point source and gravity
+ * at a fixed frame rate, so that particles keep dying and respawning.
+ * Parameters: number of particles and optionally the integrator name
+ * and the internal time step.
+ */
+public class ParticleAnimateWorkload implements Workload {
+    private ParticleSystem system;
+    private double time;
+
+    public void setup(String[] params) throws Exception {
+        system = createSystem(Integer.parseInt(params[0]));
+        if (params.length > 1) {
+            system.integrator = java.util.Arrays.asList(ParticleSystem.INTEGRATOR_TABLE).indexOf(params[1]);
+            system.timeStep = Double.parseDouble(params[2]);
+        }
+        system.animate(0);
+    }
+
+    /**
+     * A particle system like the one of test02.xml with n particles.
+     */
+    static ParticleSystem createSystem(int n) {
+        ParticlePointSource source = new ParticlePointSource();
+        source.position = new Vec3(0, 0, 0);
+        source.velocityMin = 0;
+        source.velocityMax = 3;
+        source.color = new Color(0.5, 0.5, 0.5);
+        source.colorVariation = new Color(1, 1, 1);
+        ParticleConstantForce gravity = new ParticleConstantForce();
+        gravity.force = new Vec3(0, -10, 0);
+        ParticleSystem system = new ParticleSystem();
+        system.numParticles = n;
+        system.ageMin = 0.1;
+        system.ageMax = 10;
+        system.source = source;
+        system.forces = new ParticleForce[] { gravity };
+        return system;
+    }
+
+    public Object run() {
+        time += 1.0 / 60;
+        system.animate(time);
+        return system;
+    }
+}
@@ -0,0 +1,60 @@
+import benchmarks.Workload;
+
+/**
+ * Steps a particle system whose particles interact with their neighbors,
+ * or collide with a sphere, one frame per run. The particles are spread
+ * uniformly in a cube and put back at the start of every run, so that
+ * every run does the same work.
+ * Parameters: number of particles, "interaction" or "collision".
+ */
+public class ParticleInteractionWorkload implements Workload {
+    private ParticleSystem system;
+    private double[] position;
+    private double[] velocity;
+    private double time;
+
+    public void setup(String[] params) throws Exception {
+        int n = Integer.parseInt(params[0]);
+        system = ParticleAnimateWorkload.createSystem(n);
+        system.ageMin = system.ageMax = 1e9;
+        system.integrator = ParticleSystem.INTEGRATOR_SEMI_IMPLICIT_EULER;
+        double side;
+        if (params[1].equals("interaction")) {
+            ParticleInteractionForce force = new ParticleInteractionForce();
+            force.radius = 0.05;
+            force.strength = 10;
+            // about 10 neighbors per particle at any size
+            side = force.radius * Math.cbrt(n * 4.0 / 3.0 * Math.PI / 10);
+            system.forces = new ParticleForce[] { system.forces[0], force };
+        } else {
+            Sphere sphere = new Sphere();
+            sphere.position = new Vec3(0, 0, 0);
+            sphere.radius = 1;
+            sphere.tesselationLevel = 4;
+            ParticleCollisionForce force = new ParticleCollisionForce();
+            force.colliders = new Surface[] { sphere };
+            force.radius = 0.05;
+            force.stiffness = 100000;
+            force.damping = 50;
+            force.tesselate();
+            side = 2.5;
+            system.forces = new ParticleForce[] { system.forces[0], force };
+        }
+        system.animate(0);
+        java.util.Random random = new java.util.Random(n);
+        double[] pos = system.particles.position;
+        for (int i = 0; i < pos.length; i++) {
+            pos[i] = (random.nextDouble() - 0.5) * side;
+        }
+        position = pos.clone();
+        velocity = system.particles.velocity.clone();
+    }
+
+    public Object run() {
+        System.arraycopy(position, 0, system.particles.position, 0, position.length);
+        System.arraycopy(velocity, 0, system.particles.velocity, 0, velocity.length);
+        time += 1.0 / 60;
+        system.animate(time);
+        return system;
+    }
+}
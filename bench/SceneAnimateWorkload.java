@@ -0,0 +1,30 @@
+import benchmarks.Workload;
+import benchmarks.Workloads;
+
+/**
+ * Animates a scene forward by a fixed time step, restarting the
+ * animation every restartTime seconds.
+ * Parameters: scene file, time step, restart time and optionally
+ * "parallel" to animate independent subtrees in parallel.
+ */
+public class SceneAnimateWorkload implements Workload {
+    private Scene scene;
+    private double timeStep;
+    private double restartTime;
+
+    public void setup(String[] params) throws Exception {
+        scene = new FileFormat().parseXMLScene(Workloads.scenePath(params[0]));
+        scene.tesselate();
+        timeStep = Double.parseDouble(params[1]);
+        restartTime = Double.parseDouble(params[2]);
+        scene.parallelAnimation = params.length > 3 && params[3].equals("parallel");
+    }
+
+    public Object run() {
+        if (scene.time + timeStep > restartTime) {
+            scene.restartAnimation();
+        }
+        scene.animate(scene.time + timeStep);
+        return scene;
+    }
+}
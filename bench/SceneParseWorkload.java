@@ -0,0 +1,20 @@
+import benchmarks.Workload;
+import benchmarks.Workloads;
+
+/**
+ * Parses a scene file.
+ * Parameters: scene file.
+ */
+public class SceneParseWorkload implements Workload {
+    private FileFormat parser;
+    private String path;
+
+    public void setup(String[] params) throws Exception {
+        parser = new FileFormat();
+        path = Workloads.scenePath(params[0]);
+    }
+
+    public Object run() throws Exception {
+        return parser.parseXMLScene(path);
+    }
+}
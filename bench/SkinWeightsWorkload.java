@@ -0,0 +1,52 @@
+import benchmarks.Workload;
+import benchmarks.Workloads;
+
+/**
+ * Computes the automatic vertex weights of the skin of the first child of
+ * a scene, rigged with synthetic bones: the chain of SkinningWorkload or
+ * bones spread over the skin.
+ * Parameters: scene file, tesselation level, number of bones,
+ * autoWeightsMaxDistance, "chain" or "surface".
+ */
+public class SkinWeightsWorkload implements Workload {
+    private SkinnedMesh mesh;
+
+    public void setup(String[] params) throws Exception {
+        Scene scene = new FileFormat().parseXMLScene(Workloads.scenePath(params[0]));
+        mesh = (SkinnedMesh) scene.hierarchyRoot.children[0];
+        mesh.tesselationLevel = Integer.parseInt(params[1]);
+        int nBones = Integer.parseInt(params[2]);
+        mesh.autoWeightsMaxDistance = Double.parseDouble(params[3]);
+        if (params[4].equals("surface")) {
+            mesh.skin.tesselationLevel = mesh.tesselationLevel;
+            mesh.skin.tesselate();
+            mesh.bones = createSurfaceRig(nBones, mesh.skin.tesselatedMesh);
+        } else {
+            mesh.bones = SkinningWorkload.createBones(nBones);
+        }
+        mesh.tesselate();
+    }
+
+    /**
+     * n bones, pointing along y, starting at random vertices of rest,
+     * so that each vertex has a few bones nearby.
+     */
+    static Bone[] createSurfaceRig(int n, Mesh rest) {
+        java.util.Random random = new java.util.Random(n);
+        Bone[] bones = new Bone[n];
+        for (int b = 0; b < n; b++) {
+            Bone bone = new Bone();
+            bone.translation = rest.getVertexPos(random.nextInt(rest.getNumVertices()));
+            bone.rotation = new Vec3(0, 0, 0);
+            bone.size = new Vec3(0.1, 0.2, 0.1);
+            bone.color = new Color(1, 0, 0);
+            bones[b] = bone;
+        }
+        return bones;
+    }
+
+    public Object run() {
+        mesh.computeVertexWeights();
+        return mesh.influenceWeights;
+    }
+}
@@ -0,0 +1,54 @@
+import benchmarks.Workload;
+import benchmarks.Workloads;
+
+/**
+ * Skins the mesh of the first child of a scene with a chain of synthetic
+ * bones stacked along y, each bending around z over time.
+ * Parameters: scene file, tesselation level, number of bones and
+ * optionally "dualQuaternion" to use dual quaternion skinning.
+ */
+public class SkinningWorkload implements Workload {
+    private SkinnedMesh mesh;
+    private double time;
+
+    public void setup(String[] params) throws Exception {
+        Scene scene = new FileFormat().parseXMLScene(Workloads.scenePath(params[0]));
+        mesh = (SkinnedMesh) scene.hierarchyRoot.children[0];
+        mesh.tesselationLevel = Integer.parseInt(params[1]);
+        mesh.bones = createBones(Integer.parseInt(params[2]));
+        mesh.dualQuaternionSkinning = params.length > 3 && params[3].equals("dualQuaternion");
+        mesh.tesselate();
+    }
+
+    /**
+     * Bones splitting the -1..1 range along y.
+     */
+    static Bone[] createBones(int n) {
+        Bone[] bones = new Bone[n];
+        for (int b = 0; b < n; b++) {
+            Bone bone = new Bone();
+            bone.translation = new Vec3(0, -1 + 2.0 * b / n, 0);
+            bone.rotation = new Vec3(0, 0, 0);
+            bone.size = new Vec3(0.1, 2.0 / n, 0.1);
+            bone.color = new Color(1, 0, 0);
+            KeyframeBezierSpline spline = new KeyframeBezierSpline();
+            spline.keyframeTimes = new double[] { 0, 1, 2 };
+            spline.keyframeControlPoints = new Vec3[] {
+                    new Vec3(0, 0, 0), new Vec3(0, 0, 0.1), new Vec3(0, 0, 0.2), new Vec3(0, 0, 0.3),
+                    new Vec3(0, 0, 0.3), new Vec3(0, 0, 0.2), new Vec3(0, 0, 0.1), new Vec3(0, 0, 0) };
+            spline.initFromParser();
+            bone.rotationVariation = spline;
+            bones[b] = bone;
+        }
+        return bones;
+    }
+
+    public Object run() {
+        time += 0.01;
+        if (time > 2) {
+            time = 0;
+        }
+        mesh.animate(time);
+        return mesh.tesselatedMesh;
+    }
+}
@@ -0,0 +1,21 @@
+import benchmarks.Workload;
+
+/**
+ * Tesselates a unit sphere.
+ * Parameters: tesselation level.
+ */
+public class SphereTesselateWorkload implements Workload {
+    private Sphere sphere;
+
+    public void setup(String[] params) {
+        sphere = new Sphere();
+        sphere.position = new Vec3();
+        sphere.radius = 1;
+        sphere.tesselationLevel = Integer.parseInt(params[0]);
+    }
+
+    public Object run() {
+        sphere.tesselate();
+        return sphere.tesselatedMesh;
+    }
+}
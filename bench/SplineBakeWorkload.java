@@ -0,0 +1,51 @@
+import benchmarks.Workload;
+
+/**
+ * Bakes a random Bezier spline with keyframes at integer times, sampling
+ * the whole curve at a fixed rate.
+ * Parameters: number of keyframes, sampling rate in Hz, "evaluate" to call
+ * evaluate once per sample or "evaluateBatch" to bake in a single call.
+ */
+public class SplineBakeWorkload implements Workload {
+    private KeyframeBezierSpline spline;
+    private double[] times;
+    private double[] out;
+    private boolean batch;
+
+    public void setup(String[] params) {
+        int n = Integer.parseInt(params[0]);
+        double rate = Double.parseDouble(params[1]);
+        batch = params[2].equals("evaluateBatch");
+        java.util.Random random = new java.util.Random(0);
+        spline = new KeyframeBezierSpline();
+        spline.keyframeTimes = new double[n];
+        for (int k = 0; k < n; k++) {
+            spline.keyframeTimes[k] = k;
+        }
+        spline.keyframeControlPoints = new Vec3[(n - 1) * 4];
+        for (int c = 0; c < spline.keyframeControlPoints.length; c++) {
+            spline.keyframeControlPoints[c] = new Vec3(random.nextDouble(),
+                    random.nextDouble(), random.nextDouble());
+        }
+        int nSamples = (int) ((n - 1) * rate);
+        times = new double[nSamples];
+        for (int i = 0; i < nSamples; i++) {
+            times[i] = i / rate;
+        }
+        out = new double[nSamples * 3];
+    }
+
+    public Object run() {
+        if (batch) {
+            spline.evaluateBatch(times, out);
+        } else {
+            for (int i = 0; i < times.length; i++) {
+                Vec3 p = spline.evaluate(times[i]);
+                out[i * 3 + 0] = p.x;
+                out[i * 3 + 1] = p.y;
+                out[i * 3 + 2] = p.z;
+            }
+        }
+        return out;
+    }
+}
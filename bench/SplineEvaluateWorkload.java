@@ -0,0 +1,64 @@
+import benchmarks.Workload;
+
+/**
+ * Evaluates a random Bezier spline with keyframes at integer times.
+ * In playback mode time advances by a fixed step and wraps around at the
+ * end, in random mode times are drawn uniformly over the whole curve.
+ * Parameters: number of keyframes, time step, "playback" or "random",
+ * "evaluate" or "evaluateInto".
+ */
+public class SplineEvaluateWorkload implements Workload {
+    private KeyframeBezierSpline spline;
+    private double timeStep;
+    private double endTime;
+    private double time;
+    private double[] randomTimes;
+    private int randomIndex;
+    private Vec3 dest;
+
+    public void setup(String[] params) {
+        int n = Integer.parseInt(params[0]);
+        timeStep = Double.parseDouble(params[1]);
+        java.util.Random random = new java.util.Random(0);
+        spline = new KeyframeBezierSpline();
+        spline.keyframeTimes = new double[n];
+        for (int k = 0; k < n; k++) {
+            spline.keyframeTimes[k] = k;
+        }
+        spline.keyframeControlPoints = new Vec3[(n - 1) * 4];
+        for (int c = 0; c < spline.keyframeControlPoints.length; c++) {
+            spline.keyframeControlPoints[c] = new Vec3(random.nextDouble(),
+                    random.nextDouble(), random.nextDouble());
+        }
+        endTime = n - 1;
+        time = 0;
+        if (params.length > 3 && params[3].equals("evaluateInto")) {
+            dest = new Vec3();
+        }
+        if (params.length > 2 && params[2].equals("random")) {
+            randomTimes = new double[4096];
+            for (int i = 0; i < randomTimes.length; i++) {
+                randomTimes[i] = random.nextDouble() * endTime;
+            }
+        }
+    }
+
+    public Object run() {
+        if (randomTimes != null) {
+            randomIndex = (randomIndex + 1) & (randomTimes.length - 1);
+            return evaluate(randomTimes[randomIndex]);
+        }
+        time += timeStep;
+        if (time > endTime) {
+            time = 0;
+        }
+        return evaluate(time);
+    }
+
+    private Vec3 evaluate(double t) {
+        if (dest != null) {
+            return spline.evaluateInto(t, dest);
+        }
+        return spline.evaluate(t);
+    }
+}
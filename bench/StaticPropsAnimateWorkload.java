@@ -0,0 +1,53 @@
+import benchmarks.Workload;
+
+/**
+ * Animates a synthetic scene with many static props under the root and a
+ * single animated transform, the case where skipping static subtrees pays.
+ * Parameters: number of static props, whether static subtrees are skipped.
+ */
+public class StaticPropsAnimateWorkload implements Workload {
+    private Scene scene;
+    private double time;
+
+    public void setup(String[] params) throws Exception {
+        int nStatic = Integer.parseInt(params[0]);
+        boolean skip = Boolean.parseBoolean(params[1]);
+
+        HierarchyNode[] children = new HierarchyNode[nStatic + 1];
+        for (int i = 0; i < nStatic; i++) {
+            // a small static subtree: transform -> transform -> sphere
+            Transform leaf = new Transform();
+            Sphere sphere = new Sphere();
+            sphere.position = new Vec3(0, 0, 0);
+            sphere.radius = 0.1;
+            leaf.children = new HierarchyNode[] { sphere };
+            Transform prop = new Transform();
+            prop.translation = new Vec3(i % 100, 0, i / 100);
+            prop.children = new HierarchyNode[] { leaf };
+            children[i] = prop;
+        }
+        KeyframeBezierSpline spline = new KeyframeBezierSpline();
+        spline.keyframeTimes = new double[] { 0, 2 };
+        spline.keyframeControlPoints = new Vec3[] { new Vec3(0, 0, 0),
+                new Vec3(1, 0, 0), new Vec3(1, 1, 0), new Vec3(0, 1, 0) };
+        spline.initFromParser();
+        Transform animated = new Transform();
+        animated.translationVariation = spline;
+        children[nStatic] = animated;
+
+        scene = new Scene();
+        scene.hierarchyRoot.children = children;
+        if (skip) {
+            scene.initFromParser();
+        }
+    }
+
+    public Object run() {
+        time += 0.01;
+        if (time > 2) {
+            time = 0;
+        }
+        scene.animate(time);
+        return scene;
+    }
+}
@@ -0,0 +1,45 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Mesh.tesselate on the test04.xml skin.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MeshBenchmark {
+    @Param({ "0", "1", "2", "3", "4", "5", "6" })
+    public int level;
+
+    @Param({ "false", "true" })
+    public boolean shared;
+
+    private Workload tesselate;
+
+    @Setup
+    public void setup() throws Exception {
+        tesselate = Workloads.create("MeshTesselateWorkload", "test04.xml",
+                String.valueOf(level), String.valueOf(shared));
+    }
+
+    @Benchmark
+    public Object tesselate() throws Exception {
+        return tesselate.run();
+    }
+}
@@ -0,0 +1,49 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ParticleSystem.animate on a synthetic system, one 1/60 s frame per call,
+ * with each integrator, in a single step or in internal steps of 1/240 s.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParticleBenchmark {
+    @Param({ "10000", "1000000" })
+    public int particles;
+
+    @Param({ "euler", "semiImplicitEuler", "velocityVerlet" })
+    public String integrator;
+
+    @Param({ "0", "0.004166666666666667" })
+    public String timeStep;
+
+    private Workload workload;
+
+    @Setup
+    public void setup() throws Exception {
+        workload = Workloads.create("ParticleAnimateWorkload", String.valueOf(particles),
+                integrator, timeStep);
+    }
+
+    @Benchmark
+    public Object animate() throws Exception {
+        return workload.run();
+    }
+}
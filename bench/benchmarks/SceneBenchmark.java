@@ -0,0 +1,54 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Scene.animate and FileFormat.parseXMLScene on the test scenes.
+ * Animation advances by the default MainFrame time step and restarts
+ * after 4 seconds, the length of the test animations. The animation
+ * parameter switches Scene.parallelAnimation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SceneBenchmark {
+    @Param({ "test01.xml", "test02.xml", "test03.xml", "test04.xml" })
+    public String scene;
+
+    @Param({ "sequential", "parallel" })
+    public String animation;
+
+    private Workload animate;
+    private Workload parse;
+
+    @Setup
+    public void setup() throws Exception {
+        animate = Workloads.create("SceneAnimateWorkload", scene, "0.01", "4", animation);
+        parse = Workloads.create("SceneParseWorkload", scene);
+    }
+
+    @Benchmark
+    public Object animate() throws Exception {
+        return animate.run();
+    }
+
+    @Benchmark
+    public Object parse() throws Exception {
+        return parse.run();
+    }
+}
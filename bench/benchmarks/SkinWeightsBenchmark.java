@@ -0,0 +1,52 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * SkinnedMesh.computeVertexWeights on the test04 skin with a chain of
+ * synthetic bones or bones spread over the surface of the skin.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SkinWeightsBenchmark {
+    @Param({ "5" })
+    public int level;
+
+    @Param({ "20", "100" })
+    public int bones;
+
+    @Param({ "0.5", "1" })
+    public double maxDistance;
+
+    @Param({ "chain", "surface" })
+    public String rig;
+
+    private Workload workload;
+
+    @Setup
+    public void setup() throws Exception {
+        workload = Workloads.create("SkinWeightsWorkload", "test04.xml",
+                String.valueOf(level), String.valueOf(bones), String.valueOf(maxDistance), rig);
+    }
+
+    @Benchmark
+    public Object computeVertexWeights() throws Exception {
+        return workload.run();
+    }
+}
@@ -0,0 +1,50 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * SkinnedMesh.animate on the test04 skin with a chain of synthetic bones,
+ * with linear blend or dual quaternion skinning.
+ * Run with -jvmArgs -Dthreads=N to compare thread counts.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SkinningBenchmark {
+    @Param({ "3", "5" })
+    public int level;
+
+    @Param({ "2", "20" })
+    public int bones;
+
+    @Param({ "linear", "dualQuaternion" })
+    public String skinning;
+
+    private Workload workload;
+
+    @Setup
+    public void setup() throws Exception {
+        workload = Workloads.create("SkinningWorkload", "test04.xml",
+                String.valueOf(level), String.valueOf(bones), skinning);
+    }
+
+    @Benchmark
+    public Object animate() throws Exception {
+        return workload.run();
+    }
+}
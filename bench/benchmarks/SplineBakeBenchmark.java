@@ -0,0 +1,42 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Baking a 10 second curve at 1000 Hz, one evaluate call per sample
+ * against a single evaluateBatch call.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SplineBakeBenchmark {
+    @Param({ "evaluate", "evaluateBatch" })
+    public String method;
+
+    private Workload bake;
+
+    @Setup
+    public void setup() throws Exception {
+        bake = Workloads.create("SplineBakeWorkload", "11", "1000", method);
+    }
+
+    @Benchmark
+    public Object bake() throws Exception {
+        return bake.run();
+    }
+}
@@ -0,0 +1,52 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * KeyframeBezierSpline.evaluate on curves of increasing length, either with
+ * playback advancing at a fixed step or at random times.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SplineBenchmark {
+    @Param({ "10", "1000", "100000" })
+    public int keyframes;
+
+    @Param({ "playback", "random" })
+    public String access;
+
+    @Param({ "evaluate", "evaluateInto" })
+    public String method;
+
+    @Param({ "0.01" })
+    public double timeStep;
+
+    private Workload evaluate;
+
+    @Setup
+    public void setup() throws Exception {
+        evaluate = Workloads.create("SplineEvaluateWorkload",
+                String.valueOf(keyframes), String.valueOf(timeStep), access, method);
+    }
+
+    @Benchmark
+    public Object evaluate() throws Exception {
+        return evaluate.run();
+    }
+}
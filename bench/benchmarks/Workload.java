@@ -0,0 +1,21 @@
+package benchmarks;
+
+/**
+ * A benchmarked operation.
+ *
+ * JMH does not support benchmarks in the default package, while the
+ * application classes live there and cannot be imported from a named
+ * package. Workloads bridge the two: they are implemented by default
+ * package classes in bench/ and created by name through Workloads.
+ */
+public interface Workload {
+    /**
+     * Prepare the workload. Parameters are workload specific.
+     */
+    void setup(String[] params) throws Exception;
+
+    /**
+     * Run the operation once and return a value for the blackhole.
+     */
+    Object run() throws Exception;
+}
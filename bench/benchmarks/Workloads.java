@@ -0,0 +1,28 @@
+package benchmarks;
+
+import java.io.File;
+
+/**
+ * Creates workloads by class name.
+ */
+public final class Workloads {
+    private Workloads() {
+    }
+
+    /**
+     * Create the default package workload className and set it up with params.
+     */
+    public static Workload create(String className, String... params) throws Exception {
+        Workload w = (Workload) Class.forName(className).getDeclaredConstructor().newInstance();
+        w.setup(params);
+        return w;
+    }
+
+    /**
+     * Path of a scene file. Scenes are looked up in the directory given by the
+     * "scenes" system property, or in the working directory.
+     */
+    public static String scenePath(String scene) {
+        return new File(System.getProperty("scenes", "."), scene).getPath();
+    }
+}
@@ -0,0 +1,61 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests of the vertex representations of Mesh.
+ */
+public class MeshTest {
+    /**
+     * A unit quad in the xy plane, not packed.
+     */
+    static Mesh createQuad() {
+        Mesh m = new Mesh(4, 1, true);
+        m.vertexPos[0].set(0, 0, 0);
+        m.vertexPos[1].set(1, 0, 0);
+        m.vertexPos[2].set(1, 1, 0);
+        m.vertexPos[3].set(0, 1, 0);
+        for (int v = 0; v < 4; v++) {
+            m.vertexNormal[v].set(0, 0, 1);
+            m.faceIds[v] = v;
+        }
+        return m;
+    }
+
+    @Test
+    public void tesselatePacksWithoutChangingTheSource() {
+        Mesh m = createQuad();
+        m.tesselationLevel = 1;
+        m.tesselate();
+        assertFalse(m.isPacked());
+        assertNotNull(m.vertexPos);
+        assertTrue(m.tesselatedMesh.isPacked());
+        assertEquals(4, m.tesselatedMesh.getNumFaces());
+    }
+
+    @Test
+    public void copyKeepsTheRepresentation() {
+        Mesh m = createQuad();
+        assertFalse(m.copy().isPacked());
+        m.pack();
+        assertTrue(m.copy().isPacked());
+        assertTrue(new Mesh(0, 0, false, true).copy().isPacked());
+    }
+
+    @Test
+    public void edgeMapFindsEdgesInEitherOrder() {
+        int n = 100000;
+        MeshEdgeMap edges = new MeshEdgeMap(n);
+        for (int e = 0; e < n; e++) {
+            assertEquals(e, edges.add(e, e + 1));
+        }
+        for (int e = 0; e < n; e++) {
+            assertEquals(e, edges.add(e + 1, e));
+        }
+        assertEquals(n, edges.size());
+        assertEquals(7, edges.getVertex0(7));
+    }
+}
@@ -0,0 +1,56 @@
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/**
+ * Tests of the shared pool.
+ */
+public class ParallelTest {
+    /**
+     * Sum of 0..n-1 computed with forRange.
+     */
+    static long sum(int n, int grain) {
+        AtomicLong total = new AtomicLong();
+        Parallel.forRange(n, grain, (begin, end) -> {
+            long s = 0;
+            for (int i = begin; i < end; i++) {
+                s += i;
+            }
+            total.addAndGet(s);
+        });
+        return total.get();
+    }
+
+    @Test
+    public void setNumThreadsWhileLoopsRun() throws Exception {
+        int threads = Parallel.getNumThreads();
+        final int n = 10000;
+        final long expected = (long) n * (n - 1) / 2;
+        final Throwable[] failure = new Throwable[1];
+        Thread worker = new Thread(() -> {
+            try {
+                for (int k = 0; k < 20000; k++) {
+                    assertEquals(expected, sum(n, 100));
+                }
+            } catch (Throwable e) {
+                failure[0] = e;
+            }
+        });
+        try {
+            worker.start();
+            for (int k = 0; worker.isAlive(); k++) {
+                Parallel.setNumThreads(2 + k % 3);
+                Thread.yield();
+            }
+            worker.join();
+        } finally {
+            Parallel.setNumThreads(threads);
+        }
+        if (failure[0] != null) {
+            throw new AssertionError(failure[0]);
+        }
+        assertEquals(expected, sum(n, 100));
+    }
+}
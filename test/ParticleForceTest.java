@@ -0,0 +1,90 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests of the particle forces.
+ */
+public class ParticleForceTest {
+    /**
+     * Force on particle i of particles after accumulating force.
+     */
+    static double[] forceOn(ParticleForce force, ParticleBuffer particles, int i) {
+        java.util.Arrays.fill(particles.force, 0);
+        force.prepare(particles);
+        force.accumulate(particles, 0, particles.count);
+        return new double[] { particles.force[i*3+0], particles.force[i*3+1], particles.force[i*3+2] };
+    }
+
+    static double length(double[] v) {
+        return Math.sqrt(v[0]*v[0] + v[1]*v[1] + v[2]*v[2]);
+    }
+
+    @Test
+    public void interactionSeparatesCoincidentParticles() {
+        ParticleBuffer particles = new ParticleBuffer(2);
+        for (int i = 0; i < 6; i++) {
+            particles.position[i] = 0.25;
+        }
+        ParticleInteractionForce force = new ParticleInteractionForce();
+        force.radius = 1;
+        force.strength = 2;
+        double[] f0 = forceOn(force, particles, 0);
+        double[] f1 = forceOn(force, particles, 1);
+        assertEquals(force.strength, length(f0), 1e-12);
+        for (int c = 0; c < 3; c++) {
+            assertEquals(-f0[c], f1[c], 1e-12);
+        }
+    }
+
+    @Test
+    public void interactionIgnoresSingleParticle() {
+        ParticleBuffer particles = new ParticleBuffer(1);
+        ParticleInteractionForce force = new ParticleInteractionForce();
+        force.radius = 1;
+        force.strength = 2;
+        assertEquals(0, length(forceOn(force, particles, 0)), 0);
+    }
+
+    @Test
+    public void collisionPushesAwayFromSurface() {
+        Sphere sphere = new Sphere();
+        sphere.position = new Vec3(0, 0, 0);
+        sphere.radius = 1;
+        sphere.tesselationLevel = 3;
+        ParticleCollisionForce force = new ParticleCollisionForce();
+        force.colliders = new Surface[] { sphere };
+        force.radius = 0.1;
+        force.stiffness = 100;
+        force.tesselate();
+
+        // one particle just outside the top of the sphere, one far away
+        ParticleBuffer particles = new ParticleBuffer(2);
+        particles.position[1] = 1.05;
+        particles.position[3] = 5;
+        force.prepare(particles);
+        for (int i = 0; i < particles.count; i++) {
+            force.accumulate(particles, i, i + 1);
+        }
+        assertEquals(0, particles.force[0], 1e-9);
+        assertEquals(0, particles.force[2], 1e-9);
+        assertTrue(particles.force[1] > 0);
+        assertEquals(0, particles.force[3], 0);
+        assertEquals(0, particles.force[4], 0);
+        assertEquals(0, particles.force[5], 0);
+    }
+
+    @Test
+    public void interactionFallsOffWithDistance() {
+        ParticleBuffer particles = new ParticleBuffer(2);
+        particles.position[3] = 0.5;
+        ParticleInteractionForce force = new ParticleInteractionForce();
+        force.radius = 1;
+        force.strength = 2;
+        double[] f0 = forceOn(force, particles, 0);
+        assertEquals(-1, f0[0], 1e-12);
+        assertEquals(0, f0[1], 0);
+        assertEquals(0, f0[2], 0);
+    }
+}
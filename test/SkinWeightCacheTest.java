@@ -0,0 +1,103 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.CyclicBarrier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the on-disk skin weight cache.
+ */
+public class SkinWeightCacheTest {
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("skinWeightCache").toFile();
+        System.setProperty("skinWeightCache", dir.getPath());
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty("skinWeightCache");
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    /**
+     * The skinned mesh of test03.xml, tesselated.
+     */
+    static SkinnedMesh loadSkinnedMesh() throws Exception {
+        Scene scene = new FileFormat().parseXMLScene("test03.xml");
+        SkinnedMesh sm = (SkinnedMesh) scene.hierarchyRoot.children[0];
+        sm.tesselate();
+        return sm;
+    }
+
+    @Test
+    public void saveThenLoad() throws Exception {
+        SkinnedMesh sm = loadSkinnedMesh();
+        byte[] key = SkinWeightCache.computeKey(sm);
+        assertTrue(SkinWeightCache.getFile(dir, key).isFile());
+
+        short[] bones = sm.influenceBones;
+        float[] weights = sm.influenceWeights;
+        sm.influenceBones = null;
+        sm.influenceWeights = null;
+        assertTrue(SkinWeightCache.load(sm, key));
+        assertArrayEquals(bones, sm.influenceBones);
+        assertArrayEquals(weights, sm.influenceWeights, 0);
+    }
+
+    @Test
+    public void concurrentSavesOfTheSameKey() throws Exception {
+        final SkinnedMesh sm = loadSkinnedMesh();
+        final byte[] key = SkinWeightCache.computeKey(sm);
+        final int rounds = 50;
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+        final Throwable[] failure = new Throwable[1];
+        Thread[] threads = new Thread[2];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                try {
+                    for (int i = 0; i < rounds; i++) {
+                        barrier.await();
+                        SkinWeightCache.save(sm, key);
+                    }
+                } catch (Throwable e) {
+                    synchronized (failure) {
+                        failure[0] = e;
+                    }
+                    barrier.reset();
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure[0] != null) {
+            throw new AssertionError(failure[0]);
+        }
+
+        // one complete entry and no leftover temporary files
+        String[] names = dir.list();
+        assertEquals(1, names.length);
+        assertEquals(SkinWeightCache.getFile(dir, key).getName(), names[0]);
+        short[] bones = sm.influenceBones;
+        float[] weights = sm.influenceWeights;
+        assertTrue(SkinWeightCache.load(sm, key));
+        assertArrayEquals(bones, sm.influenceBones);
+        assertArrayEquals(weights, sm.influenceWeights, 0);
+    }
+}
@@ -0,0 +1,87 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests of SkinnedMesh.
+ */
+public class SkinnedMeshTest {
+    /**
+     * A rig of n bones without hierarchy.
+     */
+    static Bone[] createBones(int n) {
+        Bone[] bones = new Bone[n];
+        for (int b = 0; b < n; b++) {
+            bones[b] = new Bone();
+        }
+        return bones;
+    }
+
+    @Test
+    public void acceptsMaxBones() {
+        SkinnedMesh sm = new SkinnedMesh();
+        sm.bones = createBones(SkinnedMesh.MAX_BONES);
+        sm.sortBones();
+        assertEquals(SkinnedMesh.MAX_BONES, sm.bones.length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTooManyBones() {
+        SkinnedMesh sm = new SkinnedMesh();
+        sm.bones = createBones(SkinnedMesh.MAX_BONES + 1);
+        sm.sortBones();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tesselateRejectsTooManyBones() throws Exception {
+        SkinnedMesh sm = (SkinnedMesh) new FileFormat().parseXMLScene("test03.xml").hierarchyRoot.children[0];
+        sm.bones = createBones(SkinnedMesh.MAX_BONES + 1);
+        sm.tesselate();
+    }
+
+    /**
+     * A chain of n bones, each the child of the previous one and bending
+     * around z over time.
+     */
+    static Bone[] createChain(int n) {
+        Bone[] bones = new Bone[n];
+        for (int b = 0; b < n; b++) {
+            Bone bone = new Bone();
+            bone.translation = new Vec3(0, b == 0 ? -1 : 2.0 / n, 0);
+            bone.rotation = new Vec3(0, 0, 0);
+            bone.size = new Vec3(0.1, 2.0 / n, 0.1);
+            bone.color = new Color(1, 0, 0);
+            bone.parent = b - 1;
+            KeyframeBezierSpline spline = new KeyframeBezierSpline();
+            spline.keyframeTimes = new double[] { 0, 1 };
+            spline.keyframeControlPoints = new Vec3[] {
+                    new Vec3(0, 0, 0.1), new Vec3(0, 0, 0.2), new Vec3(0, 0, 0.3), new Vec3(0, 0, 0.4) };
+            spline.initFromParser();
+            bone.rotationVariation = spline;
+            bones[b] = bone;
+        }
+        return bones;
+    }
+
+    @Test
+    public void restartAnimationPosesChildBones() throws Exception {
+        SkinnedMesh sm = (SkinnedMesh) new FileFormat().parseXMLScene("test03.xml").hierarchyRoot.children[0];
+        sm.bones = createChain(4);
+        sm.tesselate();
+        sm.animate(0);
+        double[][] start = new double[sm.bones.length][];
+        for (int b = 0; b < sm.bones.length; b++) {
+            start[b] = sm.bones[b].m.d.clone();
+        }
+        double[] startPos = sm.tesselatedMesh.packedPos.clone();
+
+        sm.animate(1);
+        sm.restartAnimation();
+        for (int b = 0; b < sm.bones.length; b++) {
+            assertArrayEquals(start[b], sm.bones[b].m.d, 1e-12);
+        }
+        sm.animate(0);
+        assertArrayEquals(startPos, sm.tesselatedMesh.packedPos, 1e-12);
+    }
+}